@@ -0,0 +1,174 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Стоимость основных операций {@link AutoCloseableHelper} в зависимости от размера "списка закрытия".
+ * Стоимость самого закрытия = addAndClose - add.
+ * Запуск: {@code ./gradlew jmh -Pjmh.include=AutoCloseableHelperBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AutoCloseableHelperBenchmark {
+    private static final CloseMetrics METRICS = new CloseMetrics();
+
+    @Param({"1", "4", "10", "64", "1000", "100000"})
+    int size;
+
+    private BenchResource[] resources;
+    private BenchResource extra;
+    private AutoCloseableHelper resident;
+    private final SiteKey site = new SiteKey("benchmark");
+    private final SiteKey emptySite = new SiteKey("empty");
+
+    @Setup
+    public void setUp() {
+        resources = BenchResource.array(size);
+        extra = new BenchResource();
+        resident = new AutoCloseableHelper(resources);
+    }
+
+    @TearDown
+    public void tearDown() {
+        resident.close();
+    }
+
+    @Benchmark
+    public AutoCloseableHelper add() {
+        AutoCloseableHelper helper = new AutoCloseableHelper();
+        for (BenchResource r : resources) {
+            helper.add(r);
+        }
+        return helper;
+    }
+
+    @Benchmark
+    public AutoCloseableHelper addAndClose() {
+        AutoCloseableHelper helper = new AutoCloseableHelper();
+        for (BenchResource r : resources) {
+            helper.add(r);
+        }
+        helper.close();
+        return helper;
+    }
+
+    /**
+     * Предвыделение по размеру, выученному для места создания: сравнить с addAndClose. Разница - выигрыш
+     * от отсутствия роста массива минус стоимость статистики.
+     */
+    @Benchmark
+    public AutoCloseableHelper addAndCloseForSite() {
+        AutoCloseableHelper helper = AutoCloseableHelper.forSite(site);
+        for (BenchResource r : resources) {
+            helper.add(r);
+        }
+        helper.close();
+        return helper;
+    }
+
+    /**
+     * Стоимость самой статистики места создания на пустой обертке: сравнить с emptyAndClose.
+     */
+    @Benchmark
+    public AutoCloseableHelper emptyForSiteAndClose() {
+        AutoCloseableHelper helper = AutoCloseableHelper.forSite(emptySite);
+        helper.close();
+        return helper;
+    }
+
+    @Benchmark
+    public AutoCloseableHelper emptyAndClose() {
+        AutoCloseableHelper helper = new AutoCloseableHelper();
+        helper.close();
+        return helper;
+    }
+
+    /**
+     * Стоимость измерения закрытия: сравнить с addAndClose.
+     */
+    @Benchmark
+    public AutoCloseableHelper addAndCloseWithMetrics() {
+        AutoCloseableHelper helper = new AutoCloseableHelper().withMetrics(METRICS);
+        for (BenchResource r : resources) {
+            helper.add(r);
+        }
+        helper.close();
+        return helper;
+    }
+
+    /**
+     * Типичный цикл: ресурс итерации добавляется поверх size уже добавленных и тут же удаляется с закрытием.
+     */
+    @Benchmark
+    public AutoCloseableHelper addThenRemove() {
+        resident.remove(resident.add(extra), true);
+        return resident;
+    }
+
+    /**
+     * То же, что addThenRemove, через removeLast: поиск с вершины вместо просмотра всего списка.
+     */
+    @Benchmark
+    public AutoCloseableHelper addThenRemoveLast() {
+        resident.removeLast(resident.add(extra), true);
+        return resident;
+    }
+
+    /**
+     * Режим без повторов: каждый ресурс добавляется дважды, второе добавление отсекается индексом.
+     * Сравнить с addAndClose - это стоимость индекса на добавление.
+     */
+    @Benchmark
+    public AutoCloseableHelper addTwiceAndCloseDeduplicated() {
+        AutoCloseableHelper helper = new AutoCloseableHelper().withDeduplication();
+        for (BenchResource r : resources) {
+            helper.add(r);
+            helper.add(r);
+        }
+        helper.close();
+        return helper;
+    }
+
+    @Benchmark
+    public AutoCloseableHelper varargsConstructorAndClose() {
+        AutoCloseableHelper helper = new AutoCloseableHelper(resources);
+        helper.close();
+        return helper;
+    }
+
+    @Benchmark
+    public BenchResource[] closeWithoutExceptions() {
+        AutoCloseableHelper.closeWithoutExceptions(resources);
+        return resources;
+    }
+
+    /**
+     * Ручной эквивалент: закрытие в обратном порядке с проглатыванием исключений, без обертки.
+     */
+    @Benchmark
+    public BenchResource[] baselineHandWrittenLoop() {
+        for (int i = resources.length - 1; i >= 0; i--) {
+            try {
+                resources[i].close();
+            } catch (Throwable ignored) {
+            }
+        }
+        return resources;
+    }
+}
@@ -0,0 +1,22 @@
+package by.gto.library.helpers;
+
+/**
+ * Тривиальный ресурс для бенчмарков: закрытие стоит одной записи в поле, поэтому в замерах видна стоимость
+ * самой обертки, а не ресурса.
+ */
+final class BenchResource implements AutoCloseable {
+    int closeCount;
+
+    @Override
+    public void close() {
+        closeCount++;
+    }
+
+    static BenchResource[] array(int size) {
+        BenchResource[] result = new BenchResource[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = new BenchResource();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Стоимость сторожа зависших закрытий ({@link CloseWatchdog}) для короткоживущей обертки.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CloseWatchdogBenchmark {
+    @Param({"false", "true"})
+    boolean watchdog;
+
+    private final BenchResource r1 = new BenchResource();
+    private final BenchResource r2 = new BenchResource();
+
+    @Setup
+    public void setUp() {
+        if (watchdog) {
+            CloseWatchdog.start(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        CloseWatchdog.stop();
+    }
+
+    @Benchmark
+    public int helper2() {
+        try (AutoCloseableHelper ah = new AutoCloseableHelper()) {
+            return ah.add(r1).closeCount + ah.add(r2).closeCount;
+        }
+    }
+}
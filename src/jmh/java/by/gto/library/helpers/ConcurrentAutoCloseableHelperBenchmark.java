@@ -0,0 +1,59 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Пропускная способность регистрации из нескольких потоков в одну общую область:
+ * неблокирующий {@link ConcurrentAutoCloseableHelper} против {@link AutoCloseableHelper} под монитором.
+ * Масштабирование по ядрам: {@code ./gradlew jmh -Pjmh.include=ConcurrentAutoCloseableHelperBenchmark}
+ * с разным значением {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+@Threads(Threads.MAX)
+public class ConcurrentAutoCloseableHelperBenchmark {
+    private final BenchResource resource = new BenchResource();
+    private ConcurrentAutoCloseableHelper concurrent;
+    private AutoCloseableHelper synchronizedHelper;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        concurrent = new ConcurrentAutoCloseableHelper();
+        synchronizedHelper = new AutoCloseableHelper();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        concurrent.close();
+        synchronizedHelper.close();
+    }
+
+    @Benchmark
+    public Object concurrentAdd() {
+        return concurrent.add(resource);
+    }
+
+    @Benchmark
+    public Object synchronizedAdd() {
+        synchronized (synchronizedHelper) {
+            return synchronizedHelper.add(resource);
+        }
+    }
+}
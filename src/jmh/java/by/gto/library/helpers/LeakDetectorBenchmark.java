@@ -0,0 +1,51 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Стоимость обнаружения утечек ({@link LeakDetector}) для короткоживущей обертки на каждом уровне.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LeakDetectorBenchmark {
+    @Param({"DISABLED", "SAMPLED", "PARANOID"})
+    LeakDetector.Mode mode;
+
+    private LeakDetector.Mode saved;
+    private final BenchResource r1 = new BenchResource();
+    private final BenchResource r2 = new BenchResource();
+
+    @Setup
+    public void setUp() {
+        saved = LeakDetector.getMode();
+        LeakDetector.setMode(mode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        LeakDetector.setMode(saved);
+    }
+
+    @Benchmark
+    public int helper2() {
+        try (AutoCloseableHelper ah = new AutoCloseableHelper()) {
+            return ah.add(r1).closeCount + ah.add(r2).closeCount;
+        }
+    }
+}
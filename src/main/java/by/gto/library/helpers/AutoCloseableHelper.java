@@ -1,7 +1,16 @@
 package by.gto.library.helpers;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Класс-помощник (обертка, фасад, Facade) для облегчения закрытия множества AutoCloseables, используя механизм try-with resources.
@@ -20,37 +29,957 @@ import java.util.List;
  * }
  * </pre>
  * В этом случае при выходе из try/catch ресурсы будут закрыты в порядке, обратном порядку добавления: rs, s, c
+ *
+ * Для долгоживущих оберток с большим количеством ресурсов и частыми {@link #remove(AutoCloseable, boolean)} есть
+ * индексированный режим, см. {@link #withIdentityIndex()}. Ресурсы, которые нужно удалять из списка по одному
+ * (например, по ресурсу на итерацию цикла), удобнее добавлять через {@link #addTracked(AutoCloseable)}.
+ * Вложенные области (запрос - транзакция - пачка) создаются через {@link #newChild()}.
+ * Для ресурсов, создаваемых на каждой итерации цикла, есть точки отката: {@link #mark()} и {@link #closeTo(int)}.
+ * Много независимых ресурсов с блокирующим закрытием (сокеты, файлы) можно закрывать параллельно,
+ * см. {@link #withParallelClose(Executor, int)}, {@link #barrier()} и {@link #add(AutoCloseable, AutoCloseable...)},
+ * а чтобы не ждать закрытия в вызывающем
+ * потоке - {@link #closeAsync(Executor)} или {@link #withDeferredClose(DeferredCloser)}.
+ * Обертку можно использовать повторно ({@link #reset()}) или брать из пула потока ({@link #acquire()}).
  */
 public final class AutoCloseableHelper implements AutoCloseable {
-    private final List<AutoCloseable> closeables = new ArrayList<>();
+    /**
+     * Отрицательное значение в индексе - количество вхождений ресурса со знаком минус, позиции таких ресурсов
+     * ищутся перебором. Ресурс, добавленный несколько раз, после удаления всех вхождений, кроме одного,
+     * остается с этим значением, пока не будет удален и последнее.
+     */
+    private static final int ONE_UNKNOWN = -1;
+    /** Меньше этого количества "дыр" уплотнение не запускается. */
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 16;
+    /** Барьер упорядочивания для параллельного закрытия, см. {@link #barrier()}. */
+    private static final AutoCloseable BARRIER = () -> { };
+    /** Сколько элементов хранится в полях самой обертки, без отдельного массива. */
+    private static final int INLINE = 4;
+    /** Размер куска "списка закрытия" за пределами spill; spill не растет больше этого. */
+    private static final int CHUNK = 1024;
+    private static final int CHUNK_SHIFT = 10;
+    /** Позиции от этой и выше хранятся в кусках chunks. */
+    private static final int CHUNKED_FROM = INLINE + CHUNK;
+    /** Сколько оберток хранит пул потока, см. {@link #acquire()}. */
+    private static final int POOL_CAPACITY = 4;
+    /** Массив spill длиннее этого не сохраняется при возврате обертки в пул. */
+    private static final int POOLED_SPILL_LIMIT = 64;
+    private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
+
+    /*
+     * "Список закрытия": первые INLINE элементов лежат в полях e0..e3, остальные - в массиве spill, который
+     * заводится только при переполнении полей. Благодаря этому типичная обертка на 1-4 ресурса не выделяет
+     * памяти, кроме самой себя, а в коротком try-with-resources JIT может не выделять и ее (scalar replacement).
+     * spill растет удвоением только до CHUNK элементов; дальше список продолжается кусками по CHUNK элементов
+     * (chunks - каталог кусков), поэтому очень большой список растет без копирования элементов, а куски,
+     * опустевшие при закрытии или удалении с вершины, сразу отпускаются (один остается про запас). Каталог
+     * при этом сохраняется, чтобы список, колеблющийся около CHUNKED_FROM, не заводил его каждый раз заново.
+     */
+    private AutoCloseable e0;
+    private AutoCloseable e1;
+    private AutoCloseable e2;
+    private AutoCloseable e3;
+    private AutoCloseable[] spill;
+    /** Куски списка с позиции CHUNKED_FROM; null, пока список ни разу не дорос до них. */
+    private AutoCloseable[][] chunks;
+    /** Опустевший кусок, переиспользуемый при следующем росте. */
+    private AutoCloseable[] spareChunk;
+    private int size;
+    /** Количество удаленных ресурсов, чьи позиции заняты null ("дыр"). */
+    private int tombstones;
+    /**
+     * Позиции ниже этой могли быть выданы как отметки {@link #mark()}, поэтому элементы ниже нее никогда
+     * не сдвигаются уплотнением, а "дыры" ниже нее не срезаются с вершины.
+     */
+    private int markFloor;
+    /** Сколько из tombstones находится ниже markFloor. */
+    private int floorTombstones;
+    /** Место создания, которому сообщается размер при закрытии, см. {@link #forSite(SiteKey)}. */
+    private SiteKey site;
+    /** Необязательные настройки и состояние; null, пока обертка ни для чего не настроена. */
+    private Settings settings;
+
+    {
+        PhantomCleaner.Cleanable leak = LeakDetector.track(this);
+        if (leak != null) {
+            settings().leak = leak;
+        }
+    }
 
     /**
      * Закрыть все добавленные ресурсы. Если при закрытии ресурса возникает исключение, оно проглатывается.
+     * Ресурсы снимаются со списка по одному перед закрытием, поэтому после закрытия список пуст, а все регистрации
+     * ({@link #addTracked(AutoCloseable)}) устаревают.
      */
     @Override
     public void close() {
-        for (int i = closeables.size() - 1; i >= 0; i--) {
-            try {
-                closeables.get(i).close();
-            } catch (Throwable ignored) {
+        if (site != null) {
+            site.record(size);
+        }
+        Settings s = settings;
+        if (s == null) {
+            closeAll(null);
+            return;
+        }
+        if (s.deferredCloser != null) {
+            if (size != 0) {
+                s.deferredCloser.closeLater(detach());
+            }
+        } else {
+            closeAll(s.observer);
+        }
+        closed();
+    }
+
+    /**
+     * Закрыть все добавленные ресурсы, сохранив обертку пригодной для повторного использования: память под
+     * "список закрытия" и настройки ({@code withXxx}) остаются, обертка остается дочерней областью родителя и
+     * отслеживается {@link LeakDetector}, как до вызова. Ресурсы закрываются в вызывающем потоке, даже если
+     * настроено фоновое закрытие. Регистрации ({@link #addTracked(AutoCloseable)}) устаревают.
+     */
+    public void reset() {
+        closeAll(observer());
+    }
+
+    /**
+     * Взять обертку из пула текущего потока или создать новую. Ее close() закрывает ресурсы, сбрасывает настройки
+     * и возвращает обертку в пул, поэтому в цикле запросов обертка и ее память под "список закрытия"
+     * переиспользуются. Пул хранит до нескольких оберток (для вложенных областей); массив длиннее
+     * нескольких десятков элементов при возврате в пул отбрасывается, чтобы одна большая область не удерживала
+     * его навсегда. Обертка, закрытая в другом потоке, в пул не возвращается.
+     * После close() обертку нельзя использовать: ее может получить следующий acquire().
+     * <pre>
+     * try (AutoCloseableHelper ah = AutoCloseableHelper.acquire()) {
+     *   ...
+     * }
+     * </pre>
+     * @return пустая обертка без настроек
+     */
+    public static AutoCloseableHelper acquire() {
+        Pool pool = POOL.get();
+        AutoCloseableHelper helper = pool.poll();
+        if (helper == null) {
+            helper = new AutoCloseableHelper();
+            helper.settings().pool = pool;
+        }
+        return helper;
+    }
+
+    /**
+     * То же, что {@link #close()}, но возвращает итог закрытия: количество закрытых ресурсов и исключения,
+     * которые иначе были бы проглочены. Если все ресурсы (не более 127) закрылись без исключений, возвращается общий
+     * неизменяемый итог: при последовательном закрытии без параллельного закрытия, дедлайнов и зависимостей метод
+     * сам ничего не выделяет, независимо от escape analysis (выделять может только наблюдатель закрытия).
+     * Фоновое закрытие ({@link #withDeferredClose(DeferredCloser)}) здесь не используется: ресурсы закрываются до
+     * возврата из метода.
+     * @return итог закрытия
+     */
+    public CloseReport closeWithReport() {
+        return closeWithReport(false);
+    }
+
+    /**
+     * То же, что {@link #closeWithReport()}, с возможностью измерить время: длительность close() каждого ресурса
+     * ({@link CloseReport#getTimings()}) и закрытия обертки целиком ({@link CloseReport#getTotalNanos()}).
+     * С измерением итог создается заново при каждом закрытии.
+     * @param timing измерять ли время закрытия
+     * @return итог закрытия
+     */
+    public CloseReport closeWithReport(boolean timing) {
+        if (site != null) {
+            site.record(size);
+        }
+        Settings s = settings;
+        CloseReport report;
+        if (timing || s != null && (s.parallelCloser != null || s.dependencies != null || s.deadlineCloser != null)) {
+            CloseReport.Collector collector = new CloseReport.Collector(timing);
+            closeAll(CloseObserver.both(s == null ? null : s.observer, collector));
+            report = collector.build();
+        } else {
+            report = closeAllWithReport();
+        }
+        if (s != null) {
+            closed();
+        }
+        return report;
+    }
+
+    /**
+     * Создать обертку для места site: память под "список закрытия" выделяется сразу по размеру, который обертки
+     * этого места имели при закрытии в последнее время (скользящее среднее с запасом), поэтому обертки,
+     * стабильно держащие десятки ресурсов, не растят массив копированием, а обертки на 1-4 ресурса не выделяют
+     * ничего лишнего. При закрытии обертка сообщает site свой размер.
+     * @param site место создания, обычно константа
+     * @return новая обертка
+     */
+    public static AutoCloseableHelper forSite(SiteKey site) {
+        AutoCloseableHelper helper = new AutoCloseableHelper();
+        helper.site = site;
+        int spillCapacity = Math.min(site.capacity() - INLINE, CHUNK);
+        if (spillCapacity > 0) {
+            helper.spill = new AutoCloseable[spillCapacity];
+        }
+        return helper;
+    }
+
+    /**
+     * Сбросить настройки закрытой обертки перед возвратом в пул; слишком длинный массив spill отбросить.
+     */
+    private void recycle() {
+        if (spill != null && spill.length > POOLED_SPILL_LIMIT) {
+            spill = null;
+        }
+        chunks = null;
+        spareChunk = null;
+        cancelGcCleaner();
+        Settings s = settings;
+        s.index = null;
+        s.deduplicate = false;
+        s.parallelCloser = null;
+        s.deadlineCloser = null;
+        s.deferredCloser = null;
+        s.metrics = null;
+        s.flightRecorder = null;
+        s.failures = null;
+        s.observer = null;
+        s.dependencies = null;
+        s.gcContents = null;
+    }
+
+    private void closed() {
+        Settings s = settings;
+        if (s == null) {
+            return;
+        }
+        if (s.parent != null) {
+            s.parent.release();
+            s.parent = null;
+        }
+        if (s.leak != null) {
+            s.leak.cancel();
+            s.leak = null;
+        }
+        cancelGcCleaner();
+        if (s.pool != null) {
+            s.pool.release(this);
+        }
+    }
+
+    /**
+     * Измерять закрытие ресурсов этой обертки: длительность close() и проглоченные исключения по классам ресурсов
+     * записываются в metrics (например, {@link CloseMetrics#global()}, доступный через JMX).
+     * Закрытие ресурсов через {@link #remove(AutoCloseable, boolean)}, регистрации и closeWithoutExceptions
+     * не измеряется.
+     * @param metrics метрики; null - отключить измерение
+     * @return this
+     */
+    public AutoCloseableHelper withMetrics(CloseMetrics metrics) {
+        Settings s = settings();
+        s.metrics = metrics;
+        s.observer = s.observers();
+        return this;
+    }
+
+    /**
+     * Сообщать о закрытии этой обертки в Java Flight Recorder (JDK 11+): событие by.gto.library.helpers.ScopeClose
+     * на каждое закрытие обертки, by.gto.library.helpers.SlowResourceClose на каждый ресурс, закрывавшийся не меньше
+     * threshold, и by.gto.library.helpers.SwallowedCloseException на каждое проглоченное исключение. Событие
+     * создается, только если оно включено в текущей записи JFR, поэтому без записи это стоит лишь замера времени.
+     * На JDK 8 ничего не делает.
+     * @param threshold порог "медленного" закрытия ресурса
+     * @param unit единица измерения threshold
+     * @return this
+     */
+    public AutoCloseableHelper withFlightRecorder(long threshold, TimeUnit unit) {
+        Settings s = settings();
+        s.flightRecorder = FlightRecorderSupport.observer(unit.toNanos(threshold));
+        s.observer = s.observers();
+        return this;
+    }
+
+    /**
+     * Собирать исключения, возникающие при закрытии ресурсов этой обертки, в failures вместо того, чтобы молча
+     * проглатывать их. Собираются исключения close() обертки, {@link #remove(AutoCloseable, boolean)} и
+     * {@link Registration#close()}. Накопитель ограничен и не строит цепочек suppressed, поэтому дешев и при
+     * лавине ошибок; после закрытия итог можно получить через {@link CloseFailures#toReport()} или бросить через
+     * {@link CloseFailures#throwIfAny(boolean)}.
+     * @param failures накопитель (можно разделять между обертками); null - снова проглатывать исключения
+     * @return this
+     */
+    public AutoCloseableHelper withFailureCollection(CloseFailures failures) {
+        Settings s = settings();
+        s.failures = failures;
+        s.observer = s.observers();
+        return this;
+    }
+
+    /**
+     * Создать дочернюю область: новую обертку, которая сама стоит в "списке закрытия" этой обертки как ресурс.
+     * Закрытие родителя закрывает все живые дочерние области (вместе с их дочерними, в глубину) в общем порядке,
+     * обратном порядку добавления. Закрытие дочерней области закрывает ее ресурсы и отсоединяет ее от родителя за
+     * O(1), без поиска; ресурсы, добавленные в нее после этого, родителем уже не закрываются.
+     * Настройки родителя (индекс, параллельное или фоновое закрытие) дочерней области не передаются; при
+     * параллельном закрытии родителя независимые дочерние области закрываются параллельно, как обычные ресурсы.
+     * Закрытие родителя в другом потоке ({@link #closeAsync(Executor)}, {@link #withDeferredClose(DeferredCloser)},
+     * параллельное закрытие) закрывает дочерние области там же: к этому моменту они уже сняты со списка родителя
+     * и к нему не обращаются. Саму дочернюю область, как и любую обертку, закрывают в потоке, который пользуется
+     * родителем: ее close() отсоединяет ее от родителя, а обертка не потокобезопасна.
+     * <pre>
+     * try (AutoCloseableHelper request = new AutoCloseableHelper()) {
+     *   Connection c = request.add(createConnection());
+     *   for (...) {
+     *     try (AutoCloseableHelper batch = request.newChild()) {
+     *       ...
+     *     }
+     *   }
+     * }
+     * </pre>
+     * @return дочерняя область
+     */
+    public AutoCloseableHelper newChild() {
+        AutoCloseableHelper child = new AutoCloseableHelper();
+        if (settings != null && settings.gcContents != null) {
+            child.withCloseOnGc();
+        }
+        child.settings().parent = addTracked(child);
+        return child;
+    }
+
+    /**
+     * Настройки обертки; создаются при первом обращении.
+     */
+    private Settings settings() {
+        Settings s = settings;
+        if (s == null) {
+            s = new Settings();
+            settings = s;
+        }
+        return s;
+    }
+
+    private CloseObserver observer() {
+        Settings s = settings;
+        return s == null ? null : s.observer;
+    }
+
+    private CloseFailures failures() {
+        Settings s = settings;
+        return s == null ? null : s.failures;
+    }
+
+    /**
+     * Страховка от утечек: если обертка станет недостижимой незакрытой, ее ресурсы будут закрыты (в порядке,
+     * обратном порядку добавления) в служебном потоке-демоне после сборки мусора. Это ограничивает исчерпание
+     * файловых дескрипторов и других системных ресурсов, но не заменяет try-with-resources: момент закрытия
+     * зависит от сборщика мусора.
+     * Для этого обертка ведет копию списка закрытия, которая не ссылается на саму обертку; сами ресурсы не должны
+     * ссылаться на обертку, иначе она никогда не станет недостижимой. Дочерние области ({@link #newChild()})
+     * наследуют этот режим. Стоимость - регистрация в служебном потоке и копия списка на каждую обертку.
+     * @return this
+     */
+    public AutoCloseableHelper withCloseOnGc() {
+        Settings s = settings();
+        if (s.gcContents == null) {
+            GcContents contents = new GcContents();
+            for (int i = 0; i < size; i++) {
+                AutoCloseable el = get(i);
+                AutoCloseable resource = resourceOf(el);
+                if (resource instanceof AutoCloseableHelper && ((AutoCloseableHelper) resource).isChildOf(el)) {
+                    // дочерняя область ссылается на родителя: в копию попадает только ее собственная копия
+                    ((AutoCloseableHelper) resource).withCloseOnGc();
+                }
+                contents.set(i, gcView(el));
+            }
+            s.gcContents = contents;
+            s.gcCleaner = PhantomCleaner.register(this, contents);
+        }
+        return this;
+    }
+
+    /**
+     * @return true, если эта обертка - дочерняя область, зарегистрированная в родителе как registration
+     */
+    private boolean isChildOf(AutoCloseable registration) {
+        return settings != null && settings.parent == registration;
+    }
+
+    private void cancelGcCleaner() {
+        Settings s = settings;
+        if (s != null && s.gcCleaner != null) {
+            s.gcCleaner.cancel();
+            s.gcCleaner = null;
+        }
+    }
+
+    /**
+     * То, что копия списка закрытия хранит вместо элемента: сам ресурс (без регистрации, которая ссылается на
+     * обертку), а для обертки в том же режиме - ее копию (дочерняя область ссылается на родителя).
+     */
+    private static AutoCloseable gcView(AutoCloseable el) {
+        AutoCloseable resource = resourceOf(el);
+        if (resource instanceof AutoCloseableHelper) {
+            Settings s = ((AutoCloseableHelper) resource).settings;
+            if (s != null && s.gcContents != null) {
+                return s.gcContents;
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * Закрывать ресурсы в фоне: при закрытии обертки "список закрытия" целиком отделяется от нее за O(1) и ставится
+     * в очередь closer, вызывающий поток не ждет закрытия ресурсов. Порядок закрытия внутри списка тот же, что у
+     * {@link #close()}. Если очередь closer заполнена, ресурсы закрываются сразу в вызывающем потоке.
+     * Регистрации ({@link #addTracked(AutoCloseable)}) при закрытии обертки устаревают.
+     * @param closer фоновый закрыватель, например {@link DeferredCloser#shared()}
+     * @return this
+     */
+    public AutoCloseableHelper withDeferredClose(DeferredCloser closer) {
+        if (closer == null) {
+            throw new NullPointerException("closer");
+        }
+        settings().deferredCloser = closer;
+        return this;
+    }
+
+    /**
+     * Закрыть все добавленные ресурсы асинхронно: текущий "список закрытия" целиком отделяется от обертки за O(1)
+     * и закрывается задачей в executor, а вызывающий поток сразу продолжает работу. Внутри отделенного списка
+     * порядок закрытия тот же, что у {@link #close()} (обратный порядку добавления или параллельный с барьерами).
+     * Обертка после вызова пуста и может использоваться дальше; регистрации ({@link #addTracked(AutoCloseable)})
+     * отделенных ресурсов устаревают.
+     * Если executor отказывается принять задачу, ресурсы закрываются в вызывающем потоке.
+     * @param executor пул, в котором закрываются ресурсы
+     * @return итог закрытия отделенных ресурсов; исключения закрытия попадают в итог, а не в future
+     */
+    public CompletableFuture<CloseReport> closeAsync(Executor executor) {
+        AutoCloseableHelper detached = detach();
+        try {
+            return CompletableFuture.supplyAsync(detached::closeWithReport, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(detached.closeWithReport());
+        }
+    }
+
+    private AutoCloseableHelper detach() {
+        AutoCloseableHelper detached = new AutoCloseableHelper();
+        detached.e0 = e0;
+        detached.e1 = e1;
+        detached.e2 = e2;
+        detached.e3 = e3;
+        detached.spill = spill;
+        detached.chunks = chunks;
+        detached.size = size;
+        detached.tombstones = tombstones;
+        detached.markFloor = markFloor;
+        detached.floorTombstones = floorTombstones;
+        Settings s = settings;
+        if (s != null) {
+            Settings d = detached.settings();
+            d.parallelCloser = s.parallelCloser;
+            d.deadlineCloser = s.deadlineCloser;
+            d.dependencies = s.dependencies;
+            d.observer = s.observer;
+        }
+        e0 = null;
+        e1 = null;
+        e2 = null;
+        e3 = null;
+        spill = null;
+        chunks = null;
+        size = 0;
+        tombstones = 0;
+        markFloor = 0;
+        floorTombstones = 0;
+        if (s != null) {
+            s.dependencies = null;
+            if (s.index != null) {
+                s.index = new IdentityPositions();
+            }
+            if (s.gcContents != null) {
+                s.gcContents.clear();
+            }
+        }
+        return detached;
+    }
+
+    /**
+     * Последовательное закрытие с итогом: список исключений создается только при первом исключении.
+     */
+    private CloseReport closeAllWithReport() {
+        CloseObserver observer = observer();
+        List<Throwable> failures = null;
+        int closed = 0;
+        long start = observer == null ? 0 : System.nanoTime();
+        while (size > 0) {
+            AutoCloseable resource = pop();
+            if (resource != null && resource != BARRIER) {
+                Throwable failure = closeCatching(resource, observer);
+                closed++;
+                if (failure != null) {
+                    if (failures == null) {
+                        failures = new ArrayList<>();
+                    }
+                    failures.add(failure);
+                }
+            }
+        }
+        if (observer != null) {
+            observer.scopeClosed(closed, System.nanoTime() - start);
+        }
+        markFloor = 0;
+        return failures == null ? CloseReport.success(closed) : CloseReport.failed(closed, failures);
+    }
+
+    private void closeAll(CloseObserver observer) {
+        ParallelCloser closer = settings == null ? null : settings.parallelCloser;
+        if (observer == null) {
+            closeDownTo(0, null, closer);
+        } else {
+            long start = System.nanoTime();
+            int closed = closeDownTo(0, observer, closer);
+            observer.scopeClosed(closed, System.nanoTime() - start);
+        }
+        markFloor = 0;
+    }
+
+    /**
+     * Снять со списка все элементы выше позиции mark и закрыть их по одному с дедлайнами. Группы между барьерами
+     * выкладываются подряд, каждая - в порядке зависимостей, поэтому последовательное закрытие соблюдает и то,
+     * и другое.
+     * @return количество закрытых ресурсов
+     */
+    private int closeWithDeadlines(int mark, CloseObserver observer) {
+        IdentityHashMap<AutoCloseable, AutoCloseable[]> dependencies = settings.dependencies;
+        AutoCloseable[] resources = new AutoCloseable[size - mark];
+        int count = 0;
+        while (size > mark) {
+            int from = count;
+            while (size > mark) {
+                AutoCloseable resource = pop();
+                if (resource == BARRIER) {
+                    break;
+                }
+                if (resource != null) {
+                    resources[count++] = resource;
+                }
+            }
+            if (dependencies != null) {
+                DependencyCloser.sort(resources, from, count, dependencies);
+            }
+        }
+        settings.deadlineCloser.closeAll(resources, count, observer);
+        if (dependencies != null) {
+            for (int i = 0; i < count; i++) {
+                dependencies.remove(resources[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Снять со списка и закрыть все элементы выше позиции mark.
+     * @param closer параллельное закрытие или null для закрытия в вызывающем потоке
+     * @return количество закрытых ресурсов
+     */
+    private int closeDownTo(int mark, CloseObserver observer, ParallelCloser closer) {
+        int closed = 0;
+        Settings s = settings;
+        if (s != null && s.deadlineCloser != null) {
+            return closeWithDeadlines(mark, observer);
+        }
+        if (closer == null && (s == null || s.dependencies == null)) {
+            while (size > mark) {
+                AutoCloseable resource = pop();
+                if (resource != null && resource != BARRIER) {
+                    closeQuietly(resource, observer);
+                    closed++;
+                }
+            }
+            return closed;
+        }
+        // группами между барьерами
+        AutoCloseable[] segment = new AutoCloseable[Math.min(size - mark, 16)];
+        while (size > mark) {
+            int count = 0;
+            while (size > mark) {
+                AutoCloseable resource = pop();
+                if (resource == BARRIER) {
+                    break;
+                }
+                if (resource != null) {
+                    if (count == segment.length) {
+                        segment = Arrays.copyOf(segment, count * 2);
+                    }
+                    segment[count++] = resource;
+                }
+            }
+            if (s.dependencies != null) {
+                DependencyCloser.closeAll(segment, count, s.dependencies,
+                        closer == null ? null : closer.executor, closer == null ? 1 : closer.parallelism, observer);
+                for (int i = 0; i < count; i++) {
+                    s.dependencies.remove(segment[i]);
+                }
+            } else {
+                closer.closeAll(segment, count, observer);
+            }
+            Arrays.fill(segment, 0, count, null);
+            closed += count;
+        }
+        return closed;
+    }
+
+    /**
+     * Запомнить текущую вершину "списка закрытия", чтобы затем закрыть все, что добавлено после нее,
+     * через {@link #closeTo(int)}. Отметки могут быть вложенными. Ничего не выделяет.
+     * <pre>
+     * int mark = ah.mark();
+     * for (...) {
+     *   Statement s = ah.add(c.createStatement());
+     *   ResultSet rs = ah.add(s.executeQuery(...));
+     *   ...
+     *   ah.closeTo(mark); // закрывает rs, s
+     * }
+     * </pre>
+     * @return отметка
+     */
+    public int mark() {
+        if (size > markFloor) {
+            for (int i = markFloor; i < size; i++) {
+                if (get(i) == null) {
+                    floorTombstones++;
+                }
             }
+            markFloor = size;
+        }
+        return size;
+    }
+
+    /**
+     * Закрыть в порядке, обратном порядку добавления, все ресурсы, добавленные после отметки {@link #mark()}, и
+     * удалить их из списка закрытия. Работает за O(k), где k - количество закрываемых ресурсов, без поиска.
+     * Если при закрытии ресурса возникает исключение, оно проглатывается.
+     * Отметки, выданные после mark, становятся недействительными; отметки, выданные до нее, остаются в силе.
+     * @param mark отметка, полученная от {@link #mark()} этой обертки
+     */
+    public void closeTo(int mark) {
+        if (mark < 0) {
+            throw new IllegalArgumentException("mark < 0: " + mark);
+        }
+        closeDownTo(mark, observer(), null);
+        if (markFloor > mark) {
+            markFloor = mark;
+        }
+    }
+
+    /**
+     * Закрывать ресурсы параллельно: при закрытии обертки ресурсы раздаются задачам в executor, одновременно
+     * закрывается не больше parallelism ресурсов (включая вызывающий поток, который тоже закрывает ресурсы, пока
+     * ждет остальные). Между ресурсами, закрытие которых должно быть упорядочено (ResultSet до Statement),
+     * ставится {@link #barrier()} или объявляется зависимость ({@link #add(AutoCloseable, AutoCloseable...)});
+     * без них порядок закрытия не гарантируется.
+     * Метод close() по-прежнему возвращает управление только после закрытия всех ресурсов.
+     * @param executor пул, в котором закрываются ресурсы
+     * @param parallelism максимальное количество одновременно закрываемых ресурсов, не меньше 1
+     * @return this
+     */
+    public AutoCloseableHelper withParallelClose(Executor executor, int parallelism) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1: " + parallelism);
         }
+        settings().parallelCloser = new ParallelCloser(executor, parallelism);
+        return this;
+    }
+
+    /**
+     * Ограничить время закрытия: ресурсы закрываются по одному задачей в executor, а вызывающий поток ждет
+     * не дольше дедлайнов. Ресурс, close() которого не уложился в resourceTimeout, продолжает закрываться в executor
+     * без ожидания, а остальные ресурсы закрываются дальше. Когда исчерпан scopeTimeout, все оставшиеся ресурсы
+     * отдаются executor без ожидания. Такие ресурсы перечисляются в {@link CloseReport#getTimedOut()}.
+     * Порядок закрытия тот же, что при последовательном закрытии, с учетом барьеров и зависимостей; только ресурс,
+     * брошенный по дедлайну, может закрыться позже следующих за ним. Параллельное закрытие в этом режиме
+     * не применяется. Если executor отказывается принять задачу, оставшиеся ресурсы закрываются в вызывающем
+     * потоке без дедлайнов.
+     * @param resourceTimeout дедлайн закрытия одного ресурса; 0 - без ограничения
+     * @param scopeTimeout дедлайн закрытия всех ресурсов обертки; 0 - без ограничения
+     * @param unit единица измерения дедлайнов
+     * @param executor пул, в котором закрываются ресурсы; зависшие close() занимают его потоки
+     * @return this
+     */
+    public AutoCloseableHelper withCloseDeadline(long resourceTimeout, long scopeTimeout, TimeUnit unit,
+                                                 Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (resourceTimeout < 0 || scopeTimeout < 0) {
+            throw new IllegalArgumentException("negative timeout");
+        }
+        settings().deadlineCloser =
+                new DeadlineCloser(executor, unit.toNanos(resourceTimeout), unit.toNanos(scopeTimeout));
+        return this;
+    }
+
+    /**
+     * То же, что {@link #withCloseDeadline(long, long, TimeUnit, Executor)} с общим пулом потоков-демонов,
+     * которые создаются по необходимости и завершаются после минуты простоя.
+     * @param resourceTimeout дедлайн закрытия одного ресурса; 0 - без ограничения
+     * @param scopeTimeout дедлайн закрытия всех ресурсов обертки; 0 - без ограничения
+     * @param unit единица измерения дедлайнов
+     * @return this
+     */
+    public AutoCloseableHelper withCloseDeadline(long resourceTimeout, long scopeTimeout, TimeUnit unit) {
+        return withCloseDeadline(resourceTimeout, scopeTimeout, unit, DeadlineCloser.watchdogPool());
+    }
+
+    /**
+     * То же, что {@link #withParallelClose(Executor, int)} с {@link ForkJoinPool#commonPool()}.
+     * @param parallelism максимальное количество одновременно закрываемых ресурсов, не меньше 1
+     * @return this
+     */
+    public AutoCloseableHelper withParallelClose(int parallelism) {
+        return withParallelClose(ForkJoinPool.commonPool(), parallelism);
+    }
+
+    /**
+     * Поставить барьер упорядочивания: при параллельном закрытии ресурсы, добавленные до барьера, закрываются
+     * только после того, как закрыты все ресурсы, добавленные после него. При последовательном закрытии
+     * барьер ничего не меняет (порядок и так обратный порядку добавления).
+     * <pre>
+     * Statement s = ah.add(c.createStatement());
+     * ah.barrier();
+     * ResultSet rs1 = ah.add(s.executeQuery(...));
+     * ResultSet rs2 = ah.add(s.executeQuery(...)); // rs1 и rs2 закроются параллельно, s - после них
+     * </pre>
+     * @return this
+     */
+    public AutoCloseableHelper barrier() {
+        if (size != 0 && get(size - 1) != BARRIER) {
+            append(BARRIER, null);
+        }
+        return this;
+    }
+
+    /**
+     * Снять с вершины списка очередной элемент.
+     * @return ресурс (или {@link #BARRIER}); null, если на вершине была "дыра"
+     */
+    private AutoCloseable pop() {
+        int position = size - 1;
+        AutoCloseable el = removeTop();
+        if (el == null) {
+            tombstones--;
+            if (position < markFloor) {
+                floorTombstones--;
+            }
+            return null;
+        }
+        if (el instanceof Registration) {
+            // регистрация устаревает здесь, в потоке владельца списка: ресурс (например, дочерняя область) может
+            // закрываться в другом потоке, и его release() не должен читать состояние этой обертки
+            ((Registration<?>) el).position = -1;
+        }
+        AutoCloseable resource = resourceOf(el);
+        if (settings != null && settings.index != null) {
+            unindex(resource, position);
+        }
+        return resource;
+    }
+
+    /**
+     * Включить индексированный режим: позиции ресурсов хранятся в индексе по идентичности (==), и
+     * {@link #remove(AutoCloseable, boolean)} выполняется за амортизированное O(1) вместо перебора всего списка.
+     * Порядок закрытия не меняется. Имеет смысл для долгоживущих оберток с большим количеством ресурсов.
+     * @return this
+     */
+    public AutoCloseableHelper withIdentityIndex() {
+        Settings s = settings();
+        if (s.index == null) {
+            s.index = new IdentityPositions();
+            for (int i = 0; i < size; i++) {
+                indexAt(resourceOf(get(i)), i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Включить режим без повторов: ресурс, который уже есть в списке закрытия, повторно не добавляется, и при
+     * закрытии обертки он закрывается один раз. Проверка идет по идентичности (==) через индекс
+     * ({@link #withIdentityIndex()} включается автоматически) и стоит O(1). Повторы, добавленные до включения
+     * режима, остаются в списке.
+     * @return this
+     */
+    public AutoCloseableHelper withDeduplication() {
+        withIdentityIndex();
+        settings.deduplicate = true;
+        return this;
     }
 
     /**
      * Добавить ресурс в список на автозакрытие. Если ресурс == null, он НЕ ДОБАВЛЯЕТСЯ в список.
-     * Повторное добавление того же ресурса не отслеживается.
+     * Повторное добавление того же ресурса не отслеживается, если не включен режим {@link #withDeduplication()}.
      * @param autoCloseable добавляемый ресурс
      * @param <R> тип ресурса
      * @return добавляемый ресурс (просто для удобства)
      */
     public <R extends AutoCloseable> R add(R autoCloseable) {
         if (autoCloseable != null) {
-            closeables.add(autoCloseable);
+            append(autoCloseable, autoCloseable);
         }
         return autoCloseable;
     }
 
+    /**
+     * Добавить ресурс в список на автозакрытие с явными зависимостями: ресурс будет закрыт раньше каждого из
+     * dependsOn, даже если они добавлены позже него (например, ResultSet раньше своего Statement). При закрытии
+     * ресурсы разбираются в порядке зависимостей (топологически), а при {@link #withParallelClose(Executor, int)}
+     * независимые ветви закрываются параллельно. Зависимости действуют внутри группы между барьерами
+     * ({@link #barrier()}): барьер важнее зависимости.
+     * Зависимости от ресурсов, которых нет в списке закрытия, при закрытии не учитываются.
+     * Если ресурс == null, он НЕ ДОБАВЛЯЕТСЯ в список.
+     * @param autoCloseable добавляемый ресурс
+     * @param dependsOn ресурсы, которые должны быть закрыты после autoCloseable; null-элементы пропускаются,
+     *                  null или пустой массив - то же, что {@link #add(AutoCloseable)}
+     * @param <R> тип ресурса
+     * @return добавляемый ресурс (просто для удобства)
+     * @throws IllegalArgumentException если зависимость образует цикл; ресурс при этом не добавляется
+     */
+    public <R extends AutoCloseable> R add(R autoCloseable, AutoCloseable... dependsOn) {
+        if (autoCloseable == null) {
+            return null;
+        }
+        if (dependsOn == null || dependsOn.length == 0) {
+            return add(autoCloseable);
+        }
+        Settings s = settings();
+        if (s.dependencies == null) {
+            s.dependencies = new IdentityHashMap<>();
+        }
+        IdentityHashMap<AutoCloseable, AutoCloseable[]> dependencies = s.dependencies;
+        AutoCloseable[] known = dependencies.get(autoCloseable);
+        AutoCloseable[] merged = known == null ? new AutoCloseable[dependsOn.length]
+                : Arrays.copyOf(known, known.length + dependsOn.length);
+        int n = known == null ? 0 : known.length;
+        for (AutoCloseable dep : dependsOn) {
+            if (dep == null) {
+                continue;
+            }
+            if (dependsOnTransitively(dep, autoCloseable)) {
+                throw new IllegalArgumentException("Dependency cycle: " + dep + " already depends on "
+                        + autoCloseable);
+            }
+            merged[n++] = dep;
+        }
+        dependencies.put(autoCloseable, n == merged.length ? merged : Arrays.copyOf(merged, n));
+        return add(autoCloseable);
+    }
+
+    /**
+     * @return true, если from (или он сам) зависит от to, в т.ч. через другие ресурсы
+     */
+    private boolean dependsOnTransitively(AutoCloseable from, AutoCloseable to) {
+        IdentityHashMap<AutoCloseable, Boolean> visited = new IdentityHashMap<>();
+        ArrayDeque<AutoCloseable> stack = new ArrayDeque<>();
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            AutoCloseable current = stack.pop();
+            if (current == to) {
+                return true;
+            }
+            AutoCloseable[] deps = settings.dependencies.get(current);
+            if (deps != null && visited.put(current, Boolean.TRUE) == null) {
+                for (AutoCloseable dep : deps) {
+                    stack.push(dep);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Добавить ресурс в список на автозакрытие и получить "регистрацию", через которую ресурс удаляется из списка
+     * за O(1), без поиска: {@link Registration#release()} или {@link Registration#close()}.
+     * Устаревшая регистрация (ресурс уже удален или закрыт вместе с оберткой) безвредна: ее повторные вызовы
+     * ничего не делают, и ресурс не закрывается повторно.
+     * <pre>
+     * for (...) {
+     *   try (AutoCloseableHelper.Registration&lt;Statement&gt; s = ah.addTracked(c.createStatement())) {
+     *     ...
+     *   }
+     * }
+     * </pre>
+     * В режиме {@link #withDeduplication()} для ресурса, который уже есть в списке, возвращается регистрация
+     * этого вхождения.
+     * @param autoCloseable добавляемый ресурс
+     * @param <R> тип ресурса
+     * @return регистрация ресурса; для null - регистрация, которая ничего не делает
+     */
+    public <R extends AutoCloseable> Registration<R> addTracked(R autoCloseable) {
+        if (settings != null && settings.deduplicate && autoCloseable != null) {
+            int position = positionOf(autoCloseable);
+            if (position >= 0) {
+                return registrationAt(position, autoCloseable);
+            }
+        }
+        Registration<R> registration = new Registration<>(this, autoCloseable);
+        if (autoCloseable != null) {
+            registration.position = append(registration, autoCloseable);
+        }
+        return registration;
+    }
+
+    /**
+     * Регистрация вхождения resource в позиции position; необернутое вхождение оборачивается на месте.
+     */
+    @SuppressWarnings("unchecked")
+    private <R extends AutoCloseable> Registration<R> registrationAt(int position, R resource) {
+        AutoCloseable el = get(position);
+        if (el instanceof Registration && ((Registration<?>) el).owner == this) {
+            return (Registration<R>) el;
+        }
+        Registration<R> registration = new Registration<>(this, resource);
+        registration.position = position;
+        set(position, registration);
+        return registration;
+    }
+
+    /**
+     * @return позиция последнего вхождения ресурса по индексу или -1, если его нет в списке
+     */
+    private int positionOf(AutoCloseable autoCloseable) {
+        int position = settings.index.get(autoCloseable);
+        if (position == IdentityPositions.ABSENT) {
+            return -1;
+        }
+        if (position < 0) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (resourceOf(get(i)) == autoCloseable) {
+                    return i;
+                }
+            }
+        }
+        return position;
+    }
+
+    private int append(AutoCloseable el, AutoCloseable resource) {
+        Settings s = settings;
+        if (s != null && s.deduplicate) {
+            int position = positionOf(resource);
+            if (position >= 0) {
+                return position;
+            }
+        }
+        compactIfNeeded();
+        int position = size;
+        if (s != null && s.index != null) {
+            indexAt(resource, position);
+        }
+        push(el);
+        return position;
+    }
+
     /**
      * Удалить ресурс из списка на автозакрытие. Опционально -  закрыть ресурс и если параметр close = true.
      * Если при закрытии ресурса возникает исключение, оно проглатывается.
@@ -62,26 +991,341 @@ public final class AutoCloseableHelper implements AutoCloseable {
         if (autoCloseable == null) {
             return;
         }
-        for (int i = closeables.size() - 1; i >= 0; i--) {
-            AutoCloseable el = closeables.get(i);
-            if (el == autoCloseable) {
-                closeables.remove(i);
-            }
+        Settings s = settings;
+        if (s != null && s.index != null) {
+            removeIndexed(autoCloseable);
+        } else {
+            removeAll(autoCloseable);
+        }
+        if (s != null && s.dependencies != null) {
+            s.dependencies.remove(autoCloseable);
         }
         if(close) {
-            try {
-                autoCloseable.close();
-            } catch (Throwable ignored) {
+            closeQuietly(autoCloseable, failures());
+        }
+    }
+
+    /**
+     * Удалить из списка на автозакрытие последнее добавленное вхождение ресурса. Опционально - закрыть ресурс,
+     * если параметр close = true (вне зависимости от его присутствия в списке; исключение проглатывается).
+     * В отличие от {@link #remove(AutoCloseable, boolean)}, который ищет и удаляет все вхождения и потому
+     * просматривает весь список, поиск идет с вершины и останавливается на первом совпадении: удаление только
+     * что добавленного ресурса (самый частый случай) стоит O(1) при любом размере списка.
+     * Более ранние вхождения того же ресурса остаются в списке.
+     * @param autoCloseable удаляемый и опционально закрываемый ресурс
+     * @param close закрывать ресурс при удалении из списка
+     * @return true, если ресурс был в списке
+     */
+    public boolean removeLast(AutoCloseable autoCloseable, boolean close) {
+        if (autoCloseable == null) {
+            return false;
+        }
+        boolean removed = false;
+        Settings s = settings;
+        IdentityPositions index = s == null ? null : s.index;
+        // без индекса, как и для ресурса, добавленного несколько раз, позиция ищется с вершины
+        int position = index == null ? ONE_UNKNOWN : index.get(autoCloseable);
+        if (position < 0 && position != IdentityPositions.ABSENT) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (resourceOf(get(i)) == autoCloseable) {
+                    position = i;
+                    break;
+                }
+            }
+        }
+        if (position >= 0) {
+            if (index != null) {
+                unindex(autoCloseable, position);
+            }
+            free(position);
+            removed = true;
+        }
+        if (removed && s != null && s.dependencies != null) {
+            s.dependencies.remove(autoCloseable);
+        }
+        if (close) {
+            closeQuietly(autoCloseable, failures());
+        }
+        return removed;
+    }
+
+    private void indexAt(AutoCloseable autoCloseable, int position) {
+        if (autoCloseable == null) {
+            return;
+        }
+        IdentityPositions index = settings.index;
+        int previous = index.put(autoCloseable, position);
+        if (previous != IdentityPositions.ABSENT) {
+            // второе вхождение: -2; дальше - на одно меньше
+            index.put(autoCloseable, previous >= 0 ? -2 : previous - 1);
+        }
+    }
+
+    /**
+     * Учесть в индексе удаление вхождения ресурса из позиции position.
+     */
+    private void unindex(AutoCloseable autoCloseable, int position) {
+        IdentityPositions index = settings.index;
+        int current = index.get(autoCloseable);
+        if (current == position || current == ONE_UNKNOWN) {
+            index.remove(autoCloseable);
+        } else if (current < 0 && current != IdentityPositions.ABSENT) {
+            index.put(autoCloseable, current + 1);
+        }
+    }
+
+    private void removeIndexed(AutoCloseable autoCloseable) {
+        int position = settings.index.remove(autoCloseable);
+        if (position == IdentityPositions.ABSENT) {
+            return;
+        }
+        if (position < 0) {
+            removeAll(autoCloseable);
+        } else {
+            free(position);
+        }
+    }
+
+    private void removeAll(AutoCloseable autoCloseable) {
+        // free() может срезать "дыры" с вершины ниже текущей позиции
+        for (int i = size - 1; i >= 0; i = Math.min(i, size) - 1) {
+            if (resourceOf(get(i)) == autoCloseable) {
+                free(i);
             }
         }
     }
 
+    /**
+     * Освободить позицию: вместо сдвига хвоста списка на ее месте остается "дыра", поэтому позиции остальных
+     * элементов (в т.ч. запомненные в индексе и регистрациях) не меняются до уплотнения.
+     */
+    private void free(int position) {
+        set(position, null);
+        tombstones++;
+        if (position < markFloor) {
+            floorTombstones++;
+        }
+        // "дыры" на вершине убираются сразу, это не сдвигает остальные элементы
+        while (size > markFloor && get(size - 1) == null) {
+            size--;
+            tombstones--;
+        }
+        if (chunks != null) {
+            releaseChunks();
+        }
+    }
+
+    /**
+     * Уплотнить список выше markFloor, если "дыр" там больше половины. Вызывается перед добавлением, поэтому
+     * стоимость уплотнения распределяется по добавлениям и остается амортизированно O(1).
+     */
+    private void compactIfNeeded() {
+        int movable = tombstones - floorTombstones;
+        if (movable < MIN_TOMBSTONES_TO_COMPACT || movable * 2 < size - markFloor) {
+            return;
+        }
+        IdentityPositions index = settings == null ? null : settings.index;
+        int to = markFloor;
+        for (int from = markFloor; from < size; from++) {
+            AutoCloseable el = get(from);
+            if (el == null) {
+                continue;
+            }
+            if (from != to) {
+                set(to, el);
+                if (el instanceof Registration) {
+                    ((Registration<?>) el).position = to;
+                }
+                if (index != null) {
+                    index.replace(resourceOf(el), from, to);
+                }
+            }
+            to++;
+        }
+        for (int i = to; i < size; i++) {
+            set(i, null);
+        }
+        size = to;
+        tombstones = floorTombstones;
+        if (chunks != null) {
+            releaseChunks();
+        }
+    }
+
+    private AutoCloseable get(int position) {
+        switch (position) {
+            case 0:
+                return e0;
+            case 1:
+                return e1;
+            case 2:
+                return e2;
+            case 3:
+                return e3;
+            default:
+                if (position < CHUNKED_FROM) {
+                    return spill[position - INLINE];
+                }
+                int p = position - CHUNKED_FROM;
+                return chunks[p >> CHUNK_SHIFT][p & (CHUNK - 1)];
+        }
+    }
+
+    private void set(int position, AutoCloseable el) {
+        switch (position) {
+            case 0:
+                e0 = el;
+                break;
+            case 1:
+                e1 = el;
+                break;
+            case 2:
+                e2 = el;
+                break;
+            case 3:
+                e3 = el;
+                break;
+            default:
+                if (position < CHUNKED_FROM) {
+                    spill[position - INLINE] = el;
+                } else {
+                    int p = position - CHUNKED_FROM;
+                    chunks[p >> CHUNK_SHIFT][p & (CHUNK - 1)] = el;
+                }
+        }
+        if (settings != null) {
+            gcSet(position, el);
+        }
+    }
+
+    private void gcSet(int position, AutoCloseable el) {
+        Settings s = settings;
+        if (s.gcContents == null) {
+            return;
+        }
+        s.gcContents.set(position, gcView(el));
+        if (s.gcCleaner == null && el != null) {
+            s.gcCleaner = PhantomCleaner.register(this, s.gcContents);
+        }
+    }
+
+    private void push(AutoCloseable el) {
+        int spillPosition = size - INLINE;
+        if (spillPosition >= 0) {
+            if (spillPosition >= CHUNK) {
+                addChunkFor(size);
+            } else if (spill == null) {
+                spill = new AutoCloseable[8];
+            } else if (spillPosition == spill.length) {
+                spill = Arrays.copyOf(spill, Math.min(spillPosition * 2, CHUNK));
+            }
+        }
+        set(size++, el);
+    }
+
+    /**
+     * Завести кусок для позиции position, если она первая в своем куске.
+     */
+    private void addChunkFor(int position) {
+        int p = position - CHUNKED_FROM;
+        if ((p & (CHUNK - 1)) != 0) {
+            return;
+        }
+        int chunk = p >> CHUNK_SHIFT;
+        if (chunks == null) {
+            chunks = new AutoCloseable[8][];
+        } else if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunk * 2);
+        }
+        if (spareChunk != null) {
+            chunks[chunk] = spareChunk;
+            spareChunk = null;
+        } else {
+            chunks[chunk] = new AutoCloseable[CHUNK];
+        }
+    }
+
+    /**
+     * Отпустить куски выше size (они уже пусты): один остается про запас, остальные достаются сборщику мусора.
+     * Каталог остается.
+     */
+    private void releaseChunks() {
+        int used = size <= CHUNKED_FROM ? 0 : ((size - CHUNKED_FROM - 1) >> CHUNK_SHIFT) + 1;
+        for (int i = used; i < chunks.length && chunks[i] != null; i++) {
+            if (spareChunk == null) {
+                spareChunk = chunks[i];
+            }
+            chunks[i] = null;
+        }
+    }
+
+    private AutoCloseable removeTop() {
+        AutoCloseable el = get(--size);
+        set(size, null);
+        if (chunks != null) {
+            releaseChunks();
+        }
+        return el;
+    }
+
+    /**
+     * Ресурс, хранящийся в элементе списка: сам элемент или ресурс регистрации.
+     */
+    private static AutoCloseable resourceOf(AutoCloseable el) {
+        return el instanceof Registration ? ((Registration<?>) el).resource : el;
+    }
+
     /**
      * просто конструктор по умолчанию.
      */
     public AutoCloseableHelper() {
     }
 
+    /**
+     * Конструктор для инициализации списка объектов для автозакрытия. Перегрузки на 1-4 объекта не создают массив
+     * аргументов, в отличие от варианта с переменным числом аргументов.
+     * @param a1 объект для автозакрытия.
+     */
+    public AutoCloseableHelper(AutoCloseable a1) {
+        add(a1);
+    }
+
+    /**
+     * Конструктор для инициализации списка объектов для автозакрытия.
+     * @param a1 объект для автозакрытия.
+     * @param a2 объект для автозакрытия.
+     */
+    public AutoCloseableHelper(AutoCloseable a1, AutoCloseable a2) {
+        add(a1);
+        add(a2);
+    }
+
+    /**
+     * Конструктор для инициализации списка объектов для автозакрытия.
+     * @param a1 объект для автозакрытия.
+     * @param a2 объект для автозакрытия.
+     * @param a3 объект для автозакрытия.
+     */
+    public AutoCloseableHelper(AutoCloseable a1, AutoCloseable a2, AutoCloseable a3) {
+        add(a1);
+        add(a2);
+        add(a3);
+    }
+
+    /**
+     * Конструктор для инициализации списка объектов для автозакрытия.
+     * @param a1 объект для автозакрытия.
+     * @param a2 объект для автозакрытия.
+     * @param a3 объект для автозакрытия.
+     * @param a4 объект для автозакрытия.
+     */
+    public AutoCloseableHelper(AutoCloseable a1, AutoCloseable a2, AutoCloseable a3, AutoCloseable a4) {
+        add(a1);
+        add(a2);
+        add(a3);
+        add(a4);
+    }
+
     /**
      * Конструктор для инициализации списка объектов для автозакрытия.
      * @param autoCloseables - список объектов для автозакрытия.
@@ -89,11 +1333,31 @@ public final class AutoCloseableHelper implements AutoCloseable {
     public AutoCloseableHelper(AutoCloseable... autoCloseables) {
         for (AutoCloseable a : autoCloseables) {
             if (a != null) {
-                closeables.add(a);
+                push(a);
             }
         }
     }
 
+    /**
+     * Добавить ресурсы из коллекции в список на автозакрытие в порядке обхода коллекции, без копирования коллекции.
+     * null-элементы НЕ ДОБАВЛЯЮТСЯ.
+     * @param autoCloseables добавляемые ресурсы
+     * @return this
+     */
+    public AutoCloseableHelper addAll(Iterable<? extends AutoCloseable> autoCloseables) {
+        if (autoCloseables instanceof List && autoCloseables instanceof RandomAccess) {
+            List<? extends AutoCloseable> list = (List<? extends AutoCloseable>) autoCloseables;
+            for (int i = 0, n = list.size(); i < n; i++) {
+                add(list.get(i));
+            }
+        } else {
+            for (AutoCloseable autoCloseable : autoCloseables) {
+                add(autoCloseable);
+            }
+        }
+        return this;
+    }
+
     /**
      * Закрывает переданные объекты, проглатывая возникающие при этом исключения.
      * Просто для удобства и уменьшения объема шаблонного кода.
@@ -103,13 +1367,315 @@ public final class AutoCloseableHelper implements AutoCloseable {
      */
     public static void closeWithoutExceptions(AutoCloseable... autoCloseables) {
         for (AutoCloseable autoCloseable : autoCloseables) {
-            if (autoCloseable == null) {
-                continue;
+            closeWithoutExceptions(autoCloseable);
+        }
+    }
+
+    /**
+     * Закрывает переданный объект, проглатывая возникающее при этом исключение. null игнорируется.
+     * Перегрузки на 1-4 объекта не создают массив аргументов, в отличие от варианта с переменным числом аргументов.
+     *
+     * @param a1 объект для закрытия.
+     */
+    public static void closeWithoutExceptions(AutoCloseable a1) {
+        if (a1 != null) {
+            closeQuietly(a1);
+        }
+    }
+
+    /**
+     * Закрывает переданные объекты по порядку, проглатывая возникающие при этом исключения.
+     *
+     * @param a1 объект для закрытия.
+     * @param a2 объект для закрытия.
+     */
+    public static void closeWithoutExceptions(AutoCloseable a1, AutoCloseable a2) {
+        closeWithoutExceptions(a1);
+        closeWithoutExceptions(a2);
+    }
+
+    /**
+     * Закрывает переданные объекты по порядку, проглатывая возникающие при этом исключения.
+     *
+     * @param a1 объект для закрытия.
+     * @param a2 объект для закрытия.
+     * @param a3 объект для закрытия.
+     */
+    public static void closeWithoutExceptions(AutoCloseable a1, AutoCloseable a2, AutoCloseable a3) {
+        closeWithoutExceptions(a1);
+        closeWithoutExceptions(a2);
+        closeWithoutExceptions(a3);
+    }
+
+    /**
+     * Закрывает переданные объекты по порядку, проглатывая возникающие при этом исключения.
+     *
+     * @param a1 объект для закрытия.
+     * @param a2 объект для закрытия.
+     * @param a3 объект для закрытия.
+     * @param a4 объект для закрытия.
+     */
+    public static void closeWithoutExceptions(AutoCloseable a1, AutoCloseable a2, AutoCloseable a3,
+                                              AutoCloseable a4) {
+        closeWithoutExceptions(a1);
+        closeWithoutExceptions(a2);
+        closeWithoutExceptions(a3);
+        closeWithoutExceptions(a4);
+    }
+
+    /**
+     * Закрывает объекты коллекции в порядке ее обхода, проглатывая возникающие при этом исключения.
+     * Коллекция не копируется, для списков с произвольным доступом не создается и итератор.
+     * Отдельное имя (а не перегрузка closeWithoutExceptions) нужно потому, что некоторые ресурсы сами являются
+     * Iterable (например, DirectoryStream), и вызов closeWithoutExceptions(stream) стал бы неоднозначным.
+     *
+     * @param autoCloseables объекты для закрытия.
+     */
+    public static void closeAllWithoutExceptions(Iterable<? extends AutoCloseable> autoCloseables) {
+        if (autoCloseables instanceof List && autoCloseables instanceof RandomAccess) {
+            List<? extends AutoCloseable> list = (List<? extends AutoCloseable>) autoCloseables;
+            for (int i = 0, n = list.size(); i < n; i++) {
+                closeWithoutExceptions(list.get(i));
             }
-            try {
-                autoCloseable.close();
-            } catch (Throwable ignored) {
+        } else {
+            for (AutoCloseable autoCloseable : autoCloseables) {
+                closeWithoutExceptions(autoCloseable);
+            }
+        }
+    }
+
+    /**
+     * Закрывает переданные объекты по порядку; возникающие при этом исключения не бросаются, а учитываются в
+     * failures.
+     *
+     * @param failures накопитель исключений.
+     * @param autoCloseables объекты для закрытия.
+     */
+    public static void closeWithoutExceptions(CloseFailures failures, AutoCloseable... autoCloseables) {
+        for (AutoCloseable autoCloseable : autoCloseables) {
+            if (autoCloseable != null) {
+                closeQuietly(autoCloseable, failures);
+            }
+        }
+    }
+
+    static void closeQuietly(AutoCloseable autoCloseable) {
+        CloseWatchdog.Slot watchdog = CloseWatchdog.enter(autoCloseable);
+        try {
+            autoCloseable.close();
+        } catch (Throwable ignored) {
+        } finally {
+            if (watchdog != null) {
+                watchdog.exit();
+            }
+        }
+    }
+
+    /**
+     * Закрыть ресурс, проглотив исключение; если передан observer, измерить закрытие и сообщить ему результат.
+     */
+    static void closeQuietly(AutoCloseable autoCloseable, CloseObserver observer) {
+        if (observer == null) {
+            closeQuietly(autoCloseable);
+            return;
+        }
+        closeCatching(autoCloseable, observer);
+    }
+
+    /**
+     * Закрыть ресурс; если передан observer, измерить закрытие и сообщить ему результат.
+     * @return исключение, брошенное close(), или null
+     */
+    private static Throwable closeCatching(AutoCloseable autoCloseable, CloseObserver observer) {
+        Throwable failure = null;
+        long start = observer == null ? 0 : System.nanoTime();
+        CloseWatchdog.Slot watchdog = CloseWatchdog.enter(autoCloseable);
+        try {
+            autoCloseable.close();
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            if (watchdog != null) {
+                watchdog.exit();
+            }
+        }
+        if (observer != null) {
+            observer.closed(autoCloseable, System.nanoTime() - start, failure);
+        }
+        return failure;
+    }
+
+    /**
+     * Регистрация ресурса, добавленного через {@link #addTracked(AutoCloseable)}. Хранит позицию ресурса в списке
+     * закрытия, поэтому удаление из списка не требует поиска. Позиция считается принадлежащей регистрации, только
+     * пока в ней лежит сама регистрация: освобожденная и затем переиспользованная позиция не может быть освобождена
+     * или закрыта устаревшей регистрацией повторно.
+     * Не является потокобезопасной, как и сама обертка.
+     * @param <R> тип ресурса
+     */
+    public static final class Registration<R extends AutoCloseable> implements AutoCloseable {
+        private final AutoCloseableHelper owner;
+        private final R resource;
+        private int position = -1;
+
+        private Registration(AutoCloseableHelper owner, R resource) {
+            this.owner = owner;
+            this.resource = resource;
+        }
+
+        /**
+         * @return зарегистрированный ресурс
+         */
+        public R get() {
+            return resource;
+        }
+
+        /**
+         * @return true, если ресурс все еще в списке закрытия обертки
+         */
+        public boolean isRegistered() {
+            return position >= 0 && position < owner.size && owner.get(position) == this;
+        }
+
+        /**
+         * Удалить ресурс из списка закрытия обертки, не закрывая его.
+         * @return true, если ресурс был в списке; false, если регистрация устарела
+         */
+        public boolean release() {
+            if (!isRegistered()) {
+                return false;
+            }
+            if (owner.settings != null && owner.settings.index != null) {
+                owner.unindex(resource, position);
+            }
+            owner.free(position);
+            position = -1;
+            return true;
+        }
+
+        /**
+         * Удалить ресурс из списка закрытия обертки и закрыть его. Если при закрытии ресурса возникает исключение,
+         * оно проглатывается. Если регистрация устарела, ничего не делает.
+         */
+        @Override
+        public void close() {
+            if (release()) {
+                closeQuietly(resource, owner.failures());
+            }
+        }
+    }
+
+    /**
+     * Необязательные настройки ({@code withXxx}) и состояние обертки: дочерняя область, отслеживание утечек,
+     * закрытие после сборки мусора. Вынесены из обертки и создаются при первой настройке, поэтому обертка без
+     * настроек - это только "список закрытия" и одна ссылка.
+     */
+    private static final class Settings {
+        /** Ресурс -> позиция в "списке закрытия". null, если индексированный режим не включен. */
+        IdentityPositions index;
+        /** Режим без повторов, см. {@link #withDeduplication()}. */
+        boolean deduplicate;
+        /** Параллельное закрытие. null, если ресурсы закрываются последовательно. */
+        ParallelCloser parallelCloser;
+        /** Закрытие с дедлайнами. null, если время закрытия не ограничено. */
+        DeadlineCloser deadlineCloser;
+        /** Фоновое закрытие. null, если ресурсы закрываются в вызывающем потоке. */
+        DeferredCloser deferredCloser;
+        /** Метрики, см. {@link #withMetrics(CloseMetrics)}. */
+        CloseMetrics metrics;
+        /** События JFR, см. {@link #withFlightRecorder(long, TimeUnit)}. */
+        CloseObserver flightRecorder;
+        /** Сбор исключений закрытия, см. {@link #withFailureCollection(CloseFailures)}. */
+        CloseFailures failures;
+        /** Все наблюдатели закрытия вместе. null, если закрытие не измеряется. */
+        CloseObserver observer;
+        /** Ресурс -> ресурсы, от которых он зависит. null, если зависимости не объявлялись. */
+        IdentityHashMap<AutoCloseable, AutoCloseable[]> dependencies;
+        /** Регистрация обертки в родительской, если она создана через {@link #newChild()}. */
+        Registration<AutoCloseableHelper> parent;
+        /** Отслеживание утечки, если обертка выбрана {@link LeakDetector}. */
+        PhantomCleaner.Cleanable leak;
+        /** Копия "списка закрытия" для закрытия после сборки мусора, см. {@link #withCloseOnGc()}. */
+        GcContents gcContents;
+        /**
+         * Регистрация gcContents в {@link PhantomCleaner}. Отменяется при закрытии обертки и заводится заново,
+         * когда в закрытую обертку снова добавляют ресурс.
+         */
+        PhantomCleaner.Cleanable gcCleaner;
+        /** Пул, в который обертка возвращается при закрытии, если она взята через {@link #acquire()}. */
+        Pool pool;
+        /** Обертка лежит в пуле. */
+        boolean inPool;
+
+        CloseObserver observers() {
+            return CloseObserver.both(CloseObserver.both(metrics, flightRecorder), failures);
+        }
+    }
+
+    /**
+     * Копия "списка закрытия" для {@link #withCloseOnGc()}. Пишется владельцем, читается служебным потоком
+     * только после того, как владелец стал недостижим. Закрытие идемпотентно: закрытые элементы удаляются.
+     */
+    private static final class GcContents implements AutoCloseable, Runnable {
+        private AutoCloseable[] items = new AutoCloseable[INLINE];
+
+        void set(int position, AutoCloseable resource) {
+            if (position >= items.length) {
+                if (resource == null) {
+                    return;
+                }
+                items = Arrays.copyOf(items, Math.max(items.length * 2, position + 1));
+            }
+            items[position] = resource;
+        }
+
+        void clear() {
+            Arrays.fill(items, null);
+        }
+
+        @Override
+        public void close() {
+            for (int i = items.length - 1; i >= 0; i--) {
+                AutoCloseable resource = items[i];
+                if (resource != null) {
+                    items[i] = null;
+                    closeQuietly(resource);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            close();
+        }
+    }
+
+    /**
+     * Пул оберток потока для {@link #acquire()}. Используется только своим потоком.
+     */
+    private static final class Pool {
+        private final Thread owner = Thread.currentThread();
+        private final AutoCloseableHelper[] helpers = new AutoCloseableHelper[POOL_CAPACITY];
+        private int size;
+
+        AutoCloseableHelper poll() {
+            if (size == 0) {
+                return null;
+            }
+            AutoCloseableHelper helper = helpers[--size];
+            helpers[size] = null;
+            helper.settings.inPool = false;
+            helper.settings.leak = LeakDetector.track(helper);
+            return helper;
+        }
+
+        void release(AutoCloseableHelper helper) {
+            if (helper.settings.inPool || size == POOL_CAPACITY || Thread.currentThread() != owner) {
+                return;
             }
+            helper.recycle();
+            helper.settings.inPool = true;
+            helpers[size++] = helper;
         }
     }
 }
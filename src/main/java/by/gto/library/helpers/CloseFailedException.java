@@ -0,0 +1,17 @@
+package by.gto.library.helpers;
+
+/**
+ * Исключения, собранные {@link CloseFailures} при закрытии ресурсов: сводка по классам в сообщении, сохраненные
+ * исключения - в {@link #getSuppressed()}.
+ */
+public class CloseFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message сообщение
+     * @param stackTrace заполнять ли стек этого исключения
+     */
+    public CloseFailedException(String message, boolean stackTrace) {
+        super(message, null, true, stackTrace);
+    }
+}
@@ -0,0 +1,186 @@
+package by.gto.library.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ограниченный накопитель исключений, возникших при закрытии ресурсов, вместо их молчаливого проглатывания.
+ * Вся память выделяется в конструкторе: на каждое исключение увеличиваются счетчики (общий и по классу
+ * исключения), а само исключение сохраняется, только если оно среди первых {@code keep}. Поэтому даже лавина
+ * ошибок при закрытии стоит O(1) памяти и не строит цепочек suppressed. Различных классов исключений учитывается
+ * не больше {@link #MAX_CLASSES}, остальные считаются вместе ({@link #getOtherClassesCount()}).
+ * Потокобезопасный: в него могут писать параллельное закрытие и несколько оберток.
+ * <pre>
+ * CloseFailures failures = new CloseFailures(8);
+ * try (AutoCloseableHelper ach = new AutoCloseableHelper().withFailureCollection(failures)) {
+ *   ...
+ * }
+ * failures.throwIfAny(false);
+ * </pre>
+ */
+public final class CloseFailures implements CloseObserver {
+    /** Сколько различных классов исключений считается по отдельности. */
+    public static final int MAX_CLASSES = 16;
+
+    private final AtomicInteger closedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicReferenceArray<Throwable> kept;
+    /** Открытая адресация по классу исключения, линейное пробирование; ячейки только занимаются. */
+    private final AtomicReferenceArray<Class<?>> classes = new AtomicReferenceArray<>(MAX_CLASSES);
+    private final AtomicIntegerArray classCounts = new AtomicIntegerArray(MAX_CLASSES);
+    private final AtomicInteger otherClassesCount = new AtomicInteger();
+
+    /**
+     * @param keep сколько первых исключений сохранять целиком
+     */
+    public CloseFailures(int keep) {
+        if (keep < 0) {
+            throw new IllegalArgumentException("keep must not be negative: " + keep);
+        }
+        kept = new AtomicReferenceArray<>(keep);
+    }
+
+    @Override
+    public void closed(AutoCloseable autoCloseable, long nanos, Throwable failure) {
+        closedCount.incrementAndGet();
+        if (failure != null) {
+            add(failure);
+        }
+    }
+
+    /**
+     * Учесть исключение, возникшее при закрытии.
+     * @param failure исключение
+     */
+    public void add(Throwable failure) {
+        int n = failedCount.getAndIncrement();
+        if (n < kept.length()) {
+            kept.set(n, failure);
+        }
+        Class<?> type = failure.getClass();
+        int start = (type.hashCode() & 0x7fffffff) % MAX_CLASSES;
+        for (int i = 0; i < MAX_CLASSES; i++) {
+            int slot = (start + i) % MAX_CLASSES;
+            Class<?> current = classes.get(slot);
+            if (current == null && classes.compareAndSet(slot, null, type)) {
+                current = type;
+            } else if (current == null) {
+                current = classes.get(slot);
+            }
+            if (current == type) {
+                classCounts.incrementAndGet(slot);
+                return;
+            }
+        }
+        otherClassesCount.incrementAndGet();
+    }
+
+    /**
+     * @return количество закрытых ресурсов, о которых сообщила обертка
+     */
+    public int getClosedCount() {
+        return closedCount.get();
+    }
+
+    /**
+     * @return общее количество исключений, включая не сохраненные
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return количество исключений классов, не поместившихся в учет по классам
+     */
+    public int getOtherClassesCount() {
+        return otherClassesCount.get();
+    }
+
+    /**
+     * @return количество исключений по классам, в порядке первого появления класса в таблице
+     */
+    public Map<Class<?>, Integer> getCountsByClass() {
+        Map<Class<?>, Integer> result = new LinkedHashMap<>();
+        for (int i = 0; i < MAX_CLASSES; i++) {
+            Class<?> type = classes.get(i);
+            if (type != null) {
+                result.put(type, classCounts.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return сохраненные исключения (не больше keep) в порядке возникновения
+     */
+    public List<Throwable> getKept() {
+        int count = Math.min(failedCount.get(), kept.length());
+        List<Throwable> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Throwable failure = kept.get(i);
+            if (failure != null) {
+                result.add(failure);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return итог закрытия; {@link CloseReport#getFailures()} содержит только сохраненные исключения,
+     * а {@link CloseReport#getFailedCount()} - их общее количество
+     */
+    public CloseReport toReport() {
+        List<Throwable> failures = getKept();
+        return new CloseReport(closedCount.get(), failedCount.get(),
+                failures.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(failures));
+    }
+
+    /**
+     * Бросить {@link CloseFailedException} с сохраненными исключениями в suppressed, если исключения были.
+     * @param stackTrace заполнять ли стек самого CloseFailedException; без него исключение дешевле, а стеки
+     *                   исходных исключений сохраняются в любом случае
+     * @throws CloseFailedException если при закрытии были исключения
+     */
+    public void throwIfAny(boolean stackTrace) {
+        if (failedCount.get() != 0) {
+            throw toException(stackTrace);
+        }
+    }
+
+    /**
+     * @param stackTrace заполнять ли стек исключения
+     * @return исключение с сохраненными исключениями в suppressed и сводкой по классам в сообщении
+     */
+    public CloseFailedException toException(boolean stackTrace) {
+        CloseFailedException exception = new CloseFailedException(message(), stackTrace);
+        for (Throwable failure : getKept()) {
+            exception.addSuppressed(failure);
+        }
+        return exception;
+    }
+
+    private String message() {
+        StringBuilder sb = new StringBuilder().append(failedCount.get()).append(" close failure(s)");
+        String separator = ": ";
+        for (Map.Entry<Class<?>, Integer> e : getCountsByClass().entrySet()) {
+            sb.append(separator).append(e.getKey().getName()).append(" x").append(e.getValue());
+            separator = ", ";
+        }
+        int other = otherClassesCount.get();
+        if (other != 0) {
+            sb.append(separator).append("other x").append(other);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CloseFailures{" + message() + '}';
+    }
+}
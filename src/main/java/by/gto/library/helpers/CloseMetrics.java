@@ -0,0 +1,245 @@
+package by.gto.library.helpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Метрики закрытия ресурсов по классам: количество закрытий, проглоченных исключений и гистограмма длительности
+ * close() с логарифмическими интервалами (интервал i - от 2^i до 2^(i+1) нс). Счетчики неблокирующие
+ * ({@link LongAdder}), поэтому один экземпляр можно разделять между многими обертками и потоками.
+ * Подключается к обертке через {@link AutoCloseableHelper#withMetrics(CloseMetrics)}; обертки без метрик
+ * ничего не измеряют и ничего за это не платят.
+ * Публикуется в JMX через {@link #register(String)}; {@link #global()} - общий экземпляр, публикуемый как
+ * {@code by.gto.library.helpers:type=CloseMetrics,name=global}. Опубликованный экземпляр удерживается
+ * MBeanServer (а с ним и загрузчик классов библиотеки), пока его не снимут через {@link #unregister(String)}.
+ * Метрики хранятся по именам классов, а не по самим классам, поэтому не удерживают загрузчики классов
+ * (например, перезагруженных веб-приложений). Лямбды и скрытые классы учитываются под именем класса,
+ * в котором они объявлены (с суффиксом {@code $$Lambda}), чтобы их количество не росло без ограничения.
+ */
+public final class CloseMetrics implements CloseMetricsMXBean, CloseObserver {
+    private static final int BUCKETS = 64;
+
+    /** Ключ метрик для класса; хранится в самом классе и не удерживает его. */
+    private static final ClassValue<String> KEY = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return key(type.getName());
+        }
+    };
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Общий экземпляр. При первом обращении публикуется в platform MBeanServer под именем "global"; если имя уже
+     * занято (например, копией библиотеки из другого загрузчика классов или от прежнего развертывания
+     * веб-приложения), экземпляр работает без публикации. Приложение, которое выгружается без остановки JVM,
+     * снимает его с публикации через {@code CloseMetrics.unregister("global")}, иначе MBeanServer удерживает
+     * загрузчик классов библиотеки.
+     * @return общий экземпляр
+     */
+    public static CloseMetrics global() {
+        if (!GlobalHolder.published) {
+            GlobalHolder.publish();
+        }
+        return GlobalHolder.INSTANCE;
+    }
+
+    /**
+     * Опубликовать метрики в platform MBeanServer как {@code by.gto.library.helpers:type=CloseMetrics,name=name}.
+     * @param name значение свойства name в имени MBean
+     * @return this
+     * @throws IllegalStateException если опубликовать не удалось (например, имя уже занято)
+     */
+    public CloseMetrics register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register CloseMetrics MBean " + name, e);
+        }
+        return this;
+    }
+
+    /**
+     * Снять метрики с публикации, опубликованные через {@link #register(String)}. Если их нет, ничего не делает.
+     * @param name значение свойства name в имени MBean
+     */
+    public static void unregister(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = objectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException ignored) {
+        }
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("by.gto.library.helpers:type=CloseMetrics,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * @return имя класса без уникальной части имени лямбды или скрытого класса
+     */
+    static String key(String className) {
+        int lambda = className.indexOf("$$Lambda");
+        if (lambda >= 0) {
+            return className.substring(0, lambda + "$$Lambda".length());
+        }
+        int hidden = className.indexOf('/');
+        return hidden >= 0 ? className.substring(0, hidden) : className;
+    }
+
+    @Override
+    public void closed(AutoCloseable autoCloseable, long nanos, Throwable failure) {
+        String key = KEY.get(autoCloseable.getClass());
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(key, k -> new Histogram());
+        }
+        histogram.record(nanos, failure != null);
+    }
+
+    @Override
+    public long getClosedCount() {
+        long sum = 0;
+        for (Histogram histogram : histograms.values()) {
+            sum += histogram.count.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getSwallowedExceptionCount() {
+        long sum = 0;
+        for (Histogram histogram : histograms.values()) {
+            sum += histogram.failures.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getClosedCountByClass() {
+        return byClass(h -> h.count.sum());
+    }
+
+    @Override
+    public Map<String, Long> getSwallowedExceptionCountByClass() {
+        return byClass(h -> h.failures.sum());
+    }
+
+    @Override
+    public Map<String, Long> getMeanNanosByClass() {
+        return byClass(h -> {
+            long count = h.count.sum();
+            return count == 0 ? 0 : h.totalNanos.sum() / count;
+        });
+    }
+
+    @Override
+    public Map<String, Long> getP99NanosByClass() {
+        return byClass(h -> h.percentile(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanosByClass() {
+        return byClass(h -> h.maxNanos.get());
+    }
+
+    @Override
+    public void reset() {
+        histograms.clear();
+    }
+
+    private Map<String, Long> byClass(ToLongFunction<Histogram> value) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            result.put(e.getKey(), value.applyAsLong(e.getValue()));
+        }
+        return result;
+    }
+
+    private static final class Histogram {
+        final LongAdder count = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos, boolean failed) {
+            long value = Math.max(nanos, 1);
+            buckets[63 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            totalNanos.add(value);
+            if (failed) {
+                failures.increment();
+            }
+            if (value > maxNanos.get()) {
+                maxNanos.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        long percentile(double fraction) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets[i].sum();
+                total += snapshot[i];
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && snapshot[i] != 0) {
+                    return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Общий экземпляр. Публикуется вне инициализации класса, чтобы ошибка публикации не делала класс
+     * недоступным ({@link ExceptionInInitializerError}, затем {@link NoClassDefFoundError}).
+     */
+    private static final class GlobalHolder {
+        static final CloseMetrics INSTANCE = new CloseMetrics();
+        /** Публикация уже выполнялась, успешно или нет. */
+        static volatile boolean published;
+
+        static synchronized void publish() {
+            if (published) {
+                return;
+            }
+            published = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, objectName("global"));
+            } catch (InstanceAlreadyExistsException e) {
+                Logger.getLogger(CloseMetrics.class.getName())
+                        .info("CloseMetrics MBean global is already registered, global() is not published");
+            } catch (JMException | RuntimeException e) {
+                Logger.getLogger(CloseMetrics.class.getName())
+                        .log(Level.WARNING, "Cannot register CloseMetrics MBean global", e);
+            }
+        }
+    }
+}
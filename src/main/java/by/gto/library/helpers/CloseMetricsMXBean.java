@@ -0,0 +1,48 @@
+package by.gto.library.helpers;
+
+import java.util.Map;
+
+/**
+ * JMX-представление {@link CloseMetrics}. Ключи таблиц - имена классов закрываемых ресурсов.
+ */
+public interface CloseMetricsMXBean {
+    /**
+     * @return количество закрытых ресурсов
+     */
+    long getClosedCount();
+
+    /**
+     * @return количество проглоченных исключений закрытия
+     */
+    long getSwallowedExceptionCount();
+
+    /**
+     * @return количество закрытий по классам ресурсов
+     */
+    Map<String, Long> getClosedCountByClass();
+
+    /**
+     * @return количество проглоченных исключений по классам ресурсов
+     */
+    Map<String, Long> getSwallowedExceptionCountByClass();
+
+    /**
+     * @return средняя длительность close() по классам ресурсов, нс
+     */
+    Map<String, Long> getMeanNanosByClass();
+
+    /**
+     * @return 99-й процентиль длительности close() по классам ресурсов, нс (верхняя граница интервала гистограммы)
+     */
+    Map<String, Long> getP99NanosByClass();
+
+    /**
+     * @return максимальная длительность close() по классам ресурсов, нс
+     */
+    Map<String, Long> getMaxNanosByClass();
+
+    /**
+     * Обнулить все счетчики.
+     */
+    void reset();
+}
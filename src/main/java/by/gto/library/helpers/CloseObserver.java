@@ -0,0 +1,63 @@
+package by.gto.library.helpers;
+
+/**
+ * Наблюдатель закрытия отдельных ресурсов (метрики, итог закрытия). Вызывается из потока, закрывшего ресурс,
+ * поэтому при параллельном закрытии должен быть потокобезопасным.
+ * Если наблюдателя нет, закрытие не измеряется и ничего лишнего не стоит.
+ */
+interface CloseObserver {
+    /**
+     * @param autoCloseable закрытый ресурс
+     * @param nanos длительность close(), нс
+     * @param failure исключение, брошенное close(), или null
+     */
+    void closed(AutoCloseable autoCloseable, long nanos, Throwable failure);
+
+    /**
+     * close() ресурса не уложился в дедлайн ({@link AutoCloseableHelper#withCloseDeadline}) и продолжается без
+     * ожидания. Если close() потом все-таки завершится, о нем будет сообщено через
+     * {@link #closed(AutoCloseable, long, Throwable)}, возможно уже после закрытия обертки.
+     * @param autoCloseable ресурс
+     */
+    default void timedOut(AutoCloseable autoCloseable) {
+    }
+
+    /**
+     * Обертка закрыта целиком.
+     * @param closedCount количество закрытых ресурсов
+     * @param nanos длительность закрытия обертки, нс
+     */
+    default void scopeClosed(int closedCount, long nanos) {
+    }
+
+    /**
+     * @return наблюдатель, передающий события обоим; first или second, если второй из них null
+     */
+    static CloseObserver both(CloseObserver first, CloseObserver second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return new CloseObserver() {
+            @Override
+            public void closed(AutoCloseable autoCloseable, long nanos, Throwable failure) {
+                first.closed(autoCloseable, nanos, failure);
+                second.closed(autoCloseable, nanos, failure);
+            }
+
+            @Override
+            public void timedOut(AutoCloseable autoCloseable) {
+                first.timedOut(autoCloseable);
+                second.timedOut(autoCloseable);
+            }
+
+            @Override
+            public void scopeClosed(int closedCount, long nanos) {
+                first.scopeClosed(closedCount, nanos);
+                second.scopeClosed(closedCount, nanos);
+            }
+        };
+    }
+}
@@ -0,0 +1,217 @@
+package by.gto.library.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Итог закрытия группы ресурсов: сколько ресурсов закрыто и какие исключения возникли при закрытии, а если
+ * закрытие измерялось ({@link AutoCloseableHelper#closeWithReport(boolean)}) - длительность закрытия каждого
+ * ресурса и всей группы. Неизменяемый.
+ */
+public final class CloseReport {
+    /** Итоги успешного закрытия без измерения времени для небольшого количества ресурсов, общие для всех. */
+    private static final CloseReport[] SUCCESS = new CloseReport[128];
+
+    static {
+        for (int i = 0; i < SUCCESS.length; i++) {
+            SUCCESS[i] = new CloseReport(i, 0, Collections.emptyList(), -1, Collections.emptyList(),
+                    Collections.emptyList());
+        }
+    }
+
+    private final int closedCount;
+    private final int failedCount;
+    private final List<Throwable> failures;
+    private final long totalNanos;
+    private final List<Timing> timings;
+    private final List<AutoCloseable> timedOut;
+
+    CloseReport(int closedCount, int failedCount, List<Throwable> failures) {
+        this(closedCount, failedCount, failures, -1, Collections.emptyList(), Collections.emptyList());
+    }
+
+    private CloseReport(int closedCount, int failedCount, List<Throwable> failures, long totalNanos,
+                        List<Timing> timings, List<AutoCloseable> timedOut) {
+        this.closedCount = closedCount;
+        this.failedCount = failedCount;
+        this.failures = failures;
+        this.totalNanos = totalNanos;
+        this.timings = timings;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return итог успешного закрытия closedCount ресурсов без измерения времени; для небольших closedCount -
+     * общий экземпляр
+     */
+    static CloseReport success(int closedCount) {
+        return closedCount < SUCCESS.length
+                ? SUCCESS[closedCount]
+                : new CloseReport(closedCount, 0, Collections.emptyList());
+    }
+
+    /**
+     * @return итог закрытия без измерения времени с исключениями failures (список не копируется)
+     */
+    static CloseReport failed(int closedCount, List<Throwable> failures) {
+        return new CloseReport(closedCount, failures.size(), Collections.unmodifiableList(failures));
+    }
+
+    /**
+     * @return количество ресурсов, для которых вызывался close(), включая завершившиеся исключением
+     */
+    public int getClosedCount() {
+        return closedCount;
+    }
+
+    /**
+     * @return количество ресурсов, close() которых завершился исключением
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return исключения, возникшие при закрытии, в порядке возникновения. Если итог построен
+     * {@link CloseFailures}, содержит только сохраненные исключения, и их может быть меньше {@link #getFailedCount()}
+     */
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true, если все ресурсы закрылись без исключений
+     */
+    public boolean isSuccessful() {
+        return failedCount == 0;
+    }
+
+    /**
+     * @return длительность закрытия всей группы, нс; -1, если время не измерялось
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return длительность закрытия каждого ресурса в порядке закрытия; пустой список, если время не измерялось
+     */
+    public List<Timing> getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return ресурсы, close() которых не завершился до дедлайна
+     * ({@link AutoCloseableHelper#withCloseDeadline(long, long, TimeUnit)}) и продолжается без ожидания,
+     * в порядке закрытия
+     */
+    public List<AutoCloseable> getTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "CloseReport{closed=" + closedCount + ", failed=" + failedCount
+                + (timedOut.isEmpty() ? "" : ", timedOut=" + timedOut.size())
+                + (totalNanos < 0 ? "" : ", totalNanos=" + totalNanos) + '}';
+    }
+
+    /**
+     * Длительность закрытия одного ресурса.
+     */
+    public static final class Timing {
+        private final Class<?> resourceClass;
+        private final long nanos;
+        private final boolean failed;
+
+        private Timing(Class<?> resourceClass, long nanos, boolean failed) {
+            this.resourceClass = resourceClass;
+            this.nanos = nanos;
+            this.failed = failed;
+        }
+
+        /**
+         * @return класс закрытого ресурса
+         */
+        public Class<?> getResourceClass() {
+            return resourceClass;
+        }
+
+        /**
+         * @return длительность close(), нс
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return true, если close() завершился исключением
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return resourceClass.getName() + ' ' + nanos + "ns" + (failed ? " failed" : "");
+        }
+    }
+
+    /**
+     * Накопитель итога закрытия. Потокобезопасный: при параллельном закрытии в него пишут несколько потоков.
+     */
+    static final class Collector implements CloseObserver {
+        private final AtomicInteger closedCount = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        /** null, если время не измеряется. */
+        private final ConcurrentLinkedQueue<Timing> timings;
+        private final ConcurrentLinkedQueue<AutoCloseable> timedOut = new ConcurrentLinkedQueue<>();
+        private volatile long totalNanos = -1;
+
+        Collector(boolean timing) {
+            timings = timing ? new ConcurrentLinkedQueue<>() : null;
+        }
+
+        @Override
+        public void closed(AutoCloseable autoCloseable, long nanos, Throwable failure) {
+            closedCount.incrementAndGet();
+            if (failure != null) {
+                failures.add(failure);
+            }
+            if (timings != null) {
+                timings.add(new Timing(autoCloseable.getClass(), nanos, failure != null));
+            }
+        }
+
+        @Override
+        public void timedOut(AutoCloseable autoCloseable) {
+            timedOut.add(autoCloseable);
+        }
+
+        @Override
+        public void scopeClosed(int closedCount, long nanos) {
+            if (timings != null) {
+                totalNanos = nanos;
+            }
+        }
+
+        CloseReport build() {
+            List<Throwable> list = copyOf(failures);
+            if (timings == null && timedOut.isEmpty()) {
+                return list.isEmpty()
+                        ? success(closedCount.get())
+                        : new CloseReport(closedCount.get(), list.size(), list);
+            }
+            return new CloseReport(closedCount.get(), list.size(), list, totalNanos,
+                    timings == null ? Collections.emptyList() : copyOf(timings), copyOf(timedOut));
+        }
+
+        private static <T> List<T> copyOf(ConcurrentLinkedQueue<T> queue) {
+            return queue.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(queue));
+        }
+    }
+}
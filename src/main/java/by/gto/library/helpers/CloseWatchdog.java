@@ -0,0 +1,226 @@
+package by.gto.library.helpers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Сторож зависших закрытий: отслеживает выполняющиеся close(), вызванные {@link AutoCloseableHelper} (в т.ч.
+ * closeWithoutExceptions), и, если close() длится дольше порога, один раз пишет в лог
+ * {@code by.gto.library.helpers.CloseWatchdog} (уровень WARNING) сообщение со стеком закрывающего потока,
+ * снятым через {@link java.lang.management.ThreadMXBean}.
+ *
+ * У каждого потока своя ячейка, в которую он без блокировок и без барьеров памяти записывает текущий
+ * закрываемый ресурс и время начала закрытия; ячейки просматривает один поток-демон сторожа. Пока сторож
+ * выключен (по умолчанию), закрытие стоит лишь чтения одного volatile-поля, включенный сторож - нескольких
+ * упорядоченных записей, поэтому его можно держать включенным в production.
+ * Включается {@link #start(long, TimeUnit)} или системным свойством
+ * {@code by.gto.library.helpers.closeWatchdog.thresholdMillis}.
+ */
+public final class CloseWatchdog {
+    private static final Logger LOGGER = Logger.getLogger(CloseWatchdog.class.getName());
+    private static final AtomicLong HUNG = new AtomicLong();
+    /** Все ячейки, стек без удаления: ячейки завершившихся потоков переиспользуются. */
+    private static final AtomicReference<Slot> SLOTS = new AtomicReference<>();
+    private static final ThreadLocal<Slot> SLOT = ThreadLocal.withInitial(CloseWatchdog::acquireSlot);
+
+    private static volatile boolean enabled;
+    /** Поток сторожа; null, если сторож выключен. */
+    private static Thread timer;
+
+    static {
+        long thresholdMillis = Long.getLong("by.gto.library.helpers.closeWatchdog.thresholdMillis", 0);
+        if (thresholdMillis > 0) {
+            start(thresholdMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private CloseWatchdog() {
+    }
+
+    /**
+     * Включить сторожа или сменить порог.
+     * @param threshold порог, после которого close() считается зависшим
+     * @param unit единица измерения threshold
+     */
+    public static synchronized void start(long threshold, TimeUnit unit) {
+        long thresholdNanos = unit.toNanos(threshold);
+        if (thresholdNanos <= 0) {
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        }
+        stop();
+        Thread thread = new Thread(() -> watch(thresholdNanos), "auto-closeable-helper-watchdog");
+        thread.setDaemon(true);
+        timer = thread;
+        enabled = true;
+        thread.start();
+    }
+
+    /**
+     * Выключить сторожа. Закрытия, начатые до выключения, больше не отслеживаются.
+     */
+    public static synchronized void stop() {
+        enabled = false;
+        if (timer != null) {
+            timer.interrupt();
+            timer = null;
+        }
+    }
+
+    /**
+     * @return true, если сторож включен
+     */
+    public static boolean isRunning() {
+        return enabled;
+    }
+
+    /**
+     * @return количество обнаруженных зависших закрытий с момента запуска
+     */
+    public static long getHungCloseCount() {
+        return HUNG.get();
+    }
+
+    /**
+     * Отметить начало закрытия ресурса текущим потоком.
+     * @return ячейка, которой нужно сообщить об окончании закрытия ({@link Slot#exit()}), или null, если сторож
+     * выключен
+     */
+    static Slot enter(AutoCloseable autoCloseable) {
+        if (!enabled) {
+            return null;
+        }
+        Slot slot = SLOT.get();
+        slot.enter(autoCloseable);
+        return slot;
+    }
+
+    private static Slot acquireSlot() {
+        Thread current = Thread.currentThread();
+        for (Slot slot = SLOTS.get(); slot != null; slot = slot.next) {
+            if (slot.owner == null && Slot.OWNER.compareAndSet(slot, null, current)) {
+                return slot;
+            }
+        }
+        Slot slot = new Slot(current);
+        do {
+            slot.next = SLOTS.get();
+        } while (!SLOTS.compareAndSet(slot.next, slot));
+        return slot;
+    }
+
+    private static void watch(long thresholdNanos) {
+        long periodMillis = Math.max(1, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(thresholdNanos) / 4));
+        Thread self = Thread.currentThread();
+        while (!self.isInterrupted()) {
+            try {
+                Thread.sleep(periodMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Slot slot = SLOTS.get(); slot != null; slot = slot.next) {
+                Thread owner = slot.owner;
+                if (owner == null) {
+                    continue;
+                }
+                long id = slot.id;
+                if (id == 0) {
+                    if (!owner.isAlive()) {
+                        // поток завершился: ячейку займет следующий новый поток
+                        slot.owner = null;
+                    }
+                    continue;
+                }
+                AutoCloseable resource = slot.resource;
+                long startedAt = slot.startedAt;
+                if (slot.id != id || now - startedAt < thresholdNanos || startedAt == slot.reportedStartedAt) {
+                    continue;
+                }
+                slot.reportedStartedAt = startedAt;
+                report(owner, resource, now - startedAt);
+            }
+        }
+    }
+
+    private static void report(Thread owner, AutoCloseable resource, long nanos) {
+        HUNG.incrementAndGet();
+        Throwable stack = new Throwable("Stack of thread \"" + owner.getName() + "\"");
+        ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(owner.getId(), Integer.MAX_VALUE);
+        stack.setStackTrace(info == null ? new StackTraceElement[0] : info.getStackTrace());
+        LOGGER.log(Level.WARNING, "close() of " + resource.getClass().getName() + " has been running for "
+                + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms in thread \"" + owner.getName() + '"', stack);
+    }
+
+    /**
+     * Ячейка потока. Стек вложенных закрытий принадлежит потоку-владельцу; сторожу видна только вершина:
+     * поля id, resource и startedAt. Владелец публикует вершину упорядоченными записями (id = 0, ресурс, время,
+     * новый id), сторож читает id до и после остальных полей и пропускает вершину, если id изменился или равен 0.
+     */
+    static final class Slot {
+        private static final AtomicReferenceFieldUpdater<Slot, Thread> OWNER =
+                AtomicReferenceFieldUpdater.newUpdater(Slot.class, Thread.class, "owner");
+        private static final AtomicLongFieldUpdater<Slot> ID = AtomicLongFieldUpdater.newUpdater(Slot.class, "id");
+        private static final AtomicReferenceFieldUpdater<Slot, AutoCloseable> RESOURCE =
+                AtomicReferenceFieldUpdater.newUpdater(Slot.class, AutoCloseable.class, "resource");
+        private static final AtomicLongFieldUpdater<Slot> STARTED_AT =
+                AtomicLongFieldUpdater.newUpdater(Slot.class, "startedAt");
+
+        private volatile Thread owner;
+        private Slot next;
+        private volatile long id;
+        private volatile AutoCloseable resource;
+        private volatile long startedAt;
+        /** Только для сторожа: время начала последнего закрытия, о котором уже сообщено. */
+        private long reportedStartedAt;
+
+        // только для владельца
+        private long lastId;
+        private AutoCloseable[] resources = new AutoCloseable[4];
+        private long[] starts = new long[4];
+        private int depth;
+
+        Slot(Thread owner) {
+            this.owner = owner;
+        }
+
+        void enter(AutoCloseable autoCloseable) {
+            if (depth == resources.length) {
+                resources = Arrays.copyOf(resources, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+            }
+            long now = System.nanoTime();
+            resources[depth] = autoCloseable;
+            starts[depth++] = now;
+            publish(autoCloseable, now);
+        }
+
+        /**
+         * Отметить окончание закрытия, начатого последним {@link CloseWatchdog#enter(AutoCloseable)}.
+         */
+        void exit() {
+            resources[--depth] = null;
+            if (depth == 0) {
+                publish(null, 0);
+            } else {
+                publish(resources[depth - 1], starts[depth - 1]);
+            }
+        }
+
+        private void publish(AutoCloseable autoCloseable, long start) {
+            ID.lazySet(this, 0);
+            RESOURCE.lazySet(this, autoCloseable);
+            STARTED_AT.lazySet(this, start);
+            if (autoCloseable != null) {
+                ID.lazySet(this, ++lastId);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Потокобезопасный аналог {@link AutoCloseableHelper}: ресурсы могут добавляться из нескольких потоков
+ * (например, из рабочих потоков, обслуживающих один запрос), а закрываются все вместе при закрытии обертки.
+ * Регистрация неблокирующая: "список закрытия" - стек Трайбера, вершина которого меняется через CAS.
+ * Закрытие происходит в порядке, обратном порядку добавления (для ресурсов одного потока этот порядок строгий,
+ * для ресурсов разных потоков - порядок, в котором CAS добавления выиграли гонку).
+ *
+ * Закрытие атомарно "запечатывает" обертку. Ресурс, добавляемый после этого (опоздавший), немедленно закрывается,
+ * а {@link #add(AutoCloseable)} бросает {@link IllegalStateException}: ресурс не утекает, а вызывающий узнает,
+ * что область уже закрыта.
+ */
+public final class ConcurrentAutoCloseableHelper implements AutoCloseable {
+    private static final AtomicReferenceFieldUpdater<ConcurrentAutoCloseableHelper, Node> HEAD =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentAutoCloseableHelper.class, Node.class, "head");
+    private static final AtomicReferenceFieldUpdater<Node, AutoCloseable> RESOURCE =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, AutoCloseable.class, "resource");
+    /** Вершина стека закрытой обертки. */
+    private static final Node CLOSED = new Node(null);
+
+    private volatile Node head;
+
+    /**
+     * Закрыть все добавленные ресурсы. Если при закрытии ресурса возникает исключение, оно проглатывается.
+     * Повторный вызов ничего не делает.
+     */
+    @Override
+    public void close() {
+        Node node = HEAD.getAndSet(this, CLOSED);
+        if (node == CLOSED) {
+            return;
+        }
+        for (; node != null; node = node.next) {
+            AutoCloseable autoCloseable = RESOURCE.getAndSet(node, null);
+            if (autoCloseable == null) {
+                continue;
+            }
+            AutoCloseableHelper.closeQuietly(autoCloseable);
+        }
+    }
+
+    /**
+     * @return true, если обертка закрыта и новые ресурсы не принимаются
+     */
+    public boolean isClosed() {
+        return head == CLOSED;
+    }
+
+    /**
+     * Добавить ресурс в список на автозакрытие. Если ресурс == null, он НЕ ДОБАВЛЯЕТСЯ в список.
+     * Повторное добавление того же ресурса не отслеживается.
+     * @param autoCloseable добавляемый ресурс
+     * @param <R> тип ресурса
+     * @return добавляемый ресурс (просто для удобства)
+     * @throws IllegalStateException если обертка уже закрыта; ресурс при этом закрывается
+     */
+    public <R extends AutoCloseable> R add(R autoCloseable) {
+        if (autoCloseable == null) {
+            return null;
+        }
+        Node node = new Node(autoCloseable);
+        for (;;) {
+            Node h = head;
+            if (h == CLOSED) {
+                AutoCloseableHelper.closeWithoutExceptions(autoCloseable);
+                throw new IllegalStateException("ConcurrentAutoCloseableHelper is already closed");
+            }
+            node.next = h;
+            if (HEAD.compareAndSet(this, h, node)) {
+                return autoCloseable;
+            }
+        }
+    }
+
+    /**
+     * Удалить ресурс из списка на автозакрытие. Опционально - закрыть ресурс, если параметр close = true.
+     * Если при закрытии ресурса возникает исключение, оно проглатывается.
+     * Поиск линейный; узел стека остается на месте с пустой ссылкой до закрытия обертки, поэтому метод
+     * предназначен для редких удалений, а не для ресурсов, которые создаются и удаляются в цикле.
+     * Если заказано закрытие, то переданный ресурс закрывается вне зависимости от его присутствия во внутреннем
+     * списке закрытия.
+     * @param autoCloseable удаляемый и опционально закрываемый ресурс.
+     * @param close закрывать ресурс при удалении из списка.
+     */
+    public void remove(AutoCloseable autoCloseable, boolean close) {
+        if (autoCloseable == null) {
+            return;
+        }
+        for (Node node = head; node != null && node != CLOSED; node = node.next) {
+            // узел могли уже освободить при закрытии обертки или из другого потока
+            RESOURCE.compareAndSet(node, autoCloseable, null);
+        }
+        if (close) {
+            AutoCloseableHelper.closeWithoutExceptions(autoCloseable);
+        }
+    }
+
+    private static final class Node {
+        volatile AutoCloseable resource;
+        /** Пишется только до публикации узла через CAS вершины. */
+        Node next;
+
+        Node(AutoCloseable resource) {
+            this.resource = resource;
+        }
+    }
+}
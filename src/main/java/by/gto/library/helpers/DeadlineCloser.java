@@ -0,0 +1,206 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Закрытие с дедлайнами для {@link AutoCloseableHelper#withCloseDeadline(long, long, TimeUnit, Executor)}.
+ * Ресурсы закрываются по одному задачей в executor, вызывающий поток ждет. Если close() ресурса не уложился
+ * в свой дедлайн, задача с этим ресурсом бросается (она освободит поток пула, когда close() все-таки вернется),
+ * а остальные ресурсы закрывает новая задача. Дедлайн ресурса отсчитывается и от отправки задачи в executor:
+ * если задача не начала работу за это время (все потоки пула заняты, например, зависшими close()), оставшиеся
+ * ресурсы считаются не закрытыми в срок и закроются этой задачей без ожидания. Если исчерпан дедлайн всей
+ * группы, оставшиеся ресурсы отдаются новой задаче без ожидания. Так вызывающий поток ждет не дольше дедлайнов,
+ * а в нормальном случае на группу приходится одна задача в executor.
+ */
+final class DeadlineCloser {
+    final Executor executor;
+    /** Дедлайн закрытия одного ресурса, нс; 0 - без ограничения. */
+    private final long resourceNanos;
+    /** Дедлайн закрытия всей группы, нс; 0 - без ограничения. */
+    private final long scopeNanos;
+
+    DeadlineCloser(Executor executor, long resourceNanos, long scopeNanos) {
+        this.executor = executor;
+        this.resourceNanos = resourceNanos;
+        this.scopeNanos = scopeNanos;
+    }
+
+    /**
+     * Общий пул для закрытия с дедлайнами: потоки-демоны создаются по необходимости и завершаются после минуты
+     * простоя, поэтому зависшие close() не отнимают потоков у остальных.
+     */
+    static Executor watchdogPool() {
+        return PoolHolder.POOL;
+    }
+
+    /**
+     * Закрыть resources[0..count) по порядку, ожидая не дольше дедлайнов. Ресурсы, не закрытые в срок, передаются
+     * observer.timedOut().
+     * @param observer наблюдатель закрытия или null
+     */
+    void closeAll(AutoCloseable[] resources, int count, CloseObserver observer) {
+        Batch batch = new Batch(resources, count, observer);
+        long scopeDeadline = scopeNanos == 0 ? 0 : System.nanoTime() + scopeNanos;
+        boolean interrupted = false;
+        synchronized (batch) {
+            Worker worker = batch.start(executor);
+            while (batch.settled < count) {
+                long now = System.nanoTime();
+                if (scopeDeadline != 0 && now - scopeDeadline >= 0) {
+                    // дедлайн группы: текущий и все оставшиеся ресурсы закроются без ожидания
+                    if (worker.current >= 0) {
+                        batch.abandon(worker);
+                    } else {
+                        worker.abandoned = true;
+                    }
+                    for (int i = batch.next; i < count; i++) {
+                        batch.timedOut(resources[i]);
+                    }
+                    if (batch.next < count) {
+                        batch.start(executor);
+                    }
+                    break;
+                }
+                long wait = scopeDeadline == 0 ? Long.MAX_VALUE : scopeDeadline - now;
+                if (resourceNanos != 0) {
+                    long resourceWait = worker.startedAt + resourceNanos - now;
+                    if (resourceWait <= 0) {
+                        if (worker.current >= 0) {
+                            batch.abandon(worker);
+                            worker = batch.start(executor);
+                            continue;
+                        }
+                        // задача так и не начала работу: оставшиеся ресурсы она закроет без ожидания
+                        for (int i = batch.next; i < count; i++) {
+                            batch.timedOut(resources[i]);
+                        }
+                        break;
+                    }
+                    wait = Math.min(wait, resourceWait);
+                }
+                try {
+                    if (wait == Long.MAX_VALUE) {
+                        batch.wait();
+                    } else {
+                        TimeUnit.NANOSECONDS.timedWait(batch, wait);
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Состояние закрытия группы. Все поля, кроме неизменяемых, защищены монитором самого Batch.
+     */
+    private static final class Batch {
+        private final AutoCloseable[] resources;
+        private final int count;
+        private final CloseObserver observer;
+        /** Следующий ресурс, еще не взятый задачей. */
+        private int next;
+        /** Сколько ресурсов закрыто или брошено по дедлайну. */
+        private int settled;
+
+        Batch(AutoCloseable[] resources, int count, CloseObserver observer) {
+            this.resources = resources;
+            this.count = count;
+            this.observer = observer;
+        }
+
+        /**
+         * Запустить задачу, продолжающую закрытие; если executor ее не принял, закрыть оставшиеся ресурсы
+         * в вызывающем потоке без дедлайнов.
+         */
+        Worker start(Executor executor) {
+            Worker worker = new Worker(this);
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                for (int i = next; i < count; i++) {
+                    AutoCloseableHelper.closeQuietly(resources[i], observer);
+                    settled++;
+                }
+                next = count;
+            }
+            return worker;
+        }
+
+        void abandon(Worker worker) {
+            worker.abandoned = true;
+            timedOut(resources[worker.current]);
+            settled++;
+        }
+
+        void timedOut(AutoCloseable resource) {
+            if (observer != null) {
+                observer.timedOut(resource);
+            }
+        }
+    }
+
+    private static final class Worker implements Runnable {
+        private final Batch batch;
+        /** Закрываемый сейчас ресурс или -1. */
+        private int current = -1;
+        /**
+         * Начало закрытия текущего ресурса; до начала работы - время отправки задачи в executor, между ресурсами -
+         * конец закрытия предыдущего.
+         */
+        private long startedAt = System.nanoTime();
+        private boolean abandoned;
+
+        Worker(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                AutoCloseable resource;
+                synchronized (batch) {
+                    if (abandoned || batch.next >= batch.count) {
+                        return;
+                    }
+                    current = batch.next++;
+                    startedAt = System.nanoTime();
+                    resource = batch.resources[current];
+                    // вызывающий поток мог ждать без ограничения, пока задача была между ресурсами
+                    batch.notifyAll();
+                }
+                AutoCloseableHelper.closeQuietly(resource, batch.observer);
+                synchronized (batch) {
+                    if (abandoned) {
+                        return;
+                    }
+                    current = -1;
+                    startedAt = System.nanoTime();
+                    batch.settled++;
+                    batch.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final class PoolHolder {
+        private static final Executor POOL = createPool();
+
+        private static Executor createPool() {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.MINUTES, new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, "auto-closeable-helper-close-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
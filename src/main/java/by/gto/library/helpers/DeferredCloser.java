@@ -0,0 +1,230 @@
+package by.gto.library.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фоновое закрытие ресурсов: вместо того чтобы каждый поток сам ждал закрытия своих ресурсов, ресурсы (обычно
+ * целые "списки закрытия" оберток, см. {@link AutoCloseableHelper#withDeferredClose(DeferredCloser)}) ставятся в
+ * ограниченную очередь, которую разбирают пачками один или несколько потоков-демонов.
+ * Если очередь заполнена, ресурс закрывается сразу в вызывающем потоке (обратное давление вместо роста очереди).
+ * {@link #close()} останавливает прием, дожидается закрытия всего, что уже стоит в очереди, и останавливает потоки.
+ * Для наблюдения предусмотрены метрики: глубина очереди, количество переданных и закрытых на месте ресурсов,
+ * задержка между постановкой в очередь и началом закрытия.
+ */
+public final class DeferredCloser implements AutoCloseable {
+    /** Сигнал остановки для потока разбора. */
+    private static final Task STOP = new Task(null);
+
+    private final BlockingQueue<Task> queue;
+    private final int batchSize;
+    private final Thread[] workers;
+    private volatile boolean shutdown;
+    /**
+     * Сколько вызовов {@link #closeLater(AutoCloseable)} сейчас между проверкой shutdown и постановкой в очередь;
+     * {@link #close()} ждет, пока их не останется, и только потом разбирает остаток очереди.
+     */
+    private final AtomicInteger offering = new AtomicInteger();
+
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder closedInline = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder totalLagNanos = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * @param queueCapacity максимальное количество ожидающих закрытия элементов
+     * @param threads количество потоков разбора очереди
+     * @param batchSize сколько элементов поток забирает из очереди за раз
+     */
+    public DeferredCloser(int queueCapacity, int threads, int batchSize) {
+        if (queueCapacity < 1 || threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("queueCapacity, threads and batchSize must be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "deferred-closer-" + i);
+            worker.setDaemon(true);
+            workers[i] = worker;
+            worker.start();
+        }
+    }
+
+    /**
+     * Общий для процесса экземпляр: очередь на 65536 элементов, один поток, пачки по 64.
+     * Создается при первом обращении; при завершении JVM дожидается закрытия уже поставленного в очередь.
+     * @return общий экземпляр
+     */
+    public static DeferredCloser shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Поставить ресурс в очередь на закрытие. Если очередь заполнена или прием остановлен,
+     * ресурс закрывается сразу в вызывающем потоке. Исключения закрытия проглатываются.
+     * @param autoCloseable закрываемый ресурс; null игнорируется
+     */
+    public void closeLater(AutoCloseable autoCloseable) {
+        if (autoCloseable == null) {
+            return;
+        }
+        offering.incrementAndGet();
+        boolean offered;
+        try {
+            offered = !shutdown && queue.offer(new Task(autoCloseable));
+        } finally {
+            offering.decrementAndGet();
+        }
+        if (offered) {
+            deferred.increment();
+            return;
+        }
+        closedInline.increment();
+        AutoCloseableHelper.closeQuietly(autoCloseable);
+    }
+
+    /**
+     * @return количество элементов, ожидающих закрытия
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return количество элементов, принятых в очередь
+     */
+    public long getDeferredCount() {
+        return deferred.sum();
+    }
+
+    /**
+     * @return количество элементов, закрытых потоками разбора
+     */
+    public long getClosedCount() {
+        return closed.sum();
+    }
+
+    /**
+     * @return количество элементов, закрытых в вызывающем потоке из-за заполненной очереди или остановки
+     */
+    public long getClosedInlineCount() {
+        return closedInline.sum();
+    }
+
+    /**
+     * @return средняя задержка между постановкой в очередь и началом закрытия, нс
+     */
+    public long getAverageCloseLagNanos() {
+        long count = closed.sum();
+        return count == 0 ? 0 : totalLagNanos.sum() / count;
+    }
+
+    /**
+     * @return максимальная задержка между постановкой в очередь и началом закрытия, нс
+     */
+    public long getMaxCloseLagNanos() {
+        return maxLagNanos.get();
+    }
+
+    /**
+     * Остановить прием и дождаться закрытия всего, что уже стоит в очереди. Повторный вызов ничего не делает.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+        }
+        // после этого новые ресурсы в очередь не попадут: они закроются в вызывающем потоке
+        while (offering.get() != 0) {
+            Thread.yield();
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < workers.length; ) {
+            try {
+                queue.put(STOP);
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (int i = 0; i < workers.length; ) {
+            try {
+                workers[i].join();
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        // то, что потоки разбора не взяли до STOP
+        for (Task task = queue.poll(); task != null; task = queue.poll()) {
+            if (task != STOP) {
+                closeTask(task);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        List<Task> batch = new ArrayList<>(batchSize);
+        for (;;) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // поток разбора останавливается только через STOP
+                continue;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            boolean stop = false;
+            for (Task task : batch) {
+                if (task == STOP) {
+                    stop = true;
+                } else {
+                    closeTask(task);
+                }
+            }
+            batch.clear();
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    private void closeTask(Task task) {
+        long lag = System.nanoTime() - task.enqueuedNanos;
+        totalLagNanos.add(lag);
+        if (lag > maxLagNanos.get()) {
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+        }
+        closed.increment();
+        AutoCloseableHelper.closeQuietly(task.autoCloseable);
+    }
+
+    private static final class Task {
+        final AutoCloseable autoCloseable;
+        final long enqueuedNanos = System.nanoTime();
+
+        Task(AutoCloseable autoCloseable) {
+            this.autoCloseable = autoCloseable;
+        }
+    }
+
+    private static final class SharedHolder {
+        static final DeferredCloser INSTANCE = new DeferredCloser(65536, 1, 64);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::close, "deferred-closer-shutdown"));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package by.gto.library.helpers;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Закрытие группы ресурсов с учетом явных зависимостей ({@link AutoCloseableHelper#add(AutoCloseable,
+ * AutoCloseable...)}): ресурс закрывается только после всех ресурсов группы, которые от него зависят.
+ * Из готовых к закрытию ресурсов первым берется ближайший к вершине "списка закрытия", поэтому для независимых
+ * ресурсов сохраняется обычный порядок, обратный порядку добавления. Если задан executor, независимые ветви
+ * закрываются параллельно, но одновременно не более parallelism ресурсов (включая вызывающий поток).
+ * Задачи в executor не ждут: задача завершается, как только готовых ресурсов не осталось, а новые задачи
+ * запускает тот поток, после закрытия ресурса в котором готовых ресурсов стало больше, чем он возьмет сам.
+ * Поэтому длинная цепочка зависимостей занимает только вызывающий поток.
+ * Каждый вызов - одна группа; объект создается на время ее закрытия.
+ */
+final class DependencyCloser implements Runnable {
+    private final AutoCloseable[] resources;
+    private final CloseObserver observer;
+    private final Executor executor;
+    private final int parallelism;
+    /** dependents[i] - сколько еще не закрытых ресурсов группы зависят от resources[i]. */
+    private final int[] dependents;
+    /** dependencies[i] - индексы ресурсов группы, от которых зависит resources[i]. */
+    private final int[][] dependencies;
+    /** Индексы ресурсов, готовых к закрытию; под монитором this. */
+    private final PriorityQueue<Integer> ready = new PriorityQueue<>();
+    /** Сколько ресурсов еще не закрыто; под монитором this. */
+    private int remaining;
+    /** Сколько задач запущено в executor и еще не завершилось; под монитором this. */
+    private int tasks;
+
+    private DependencyCloser(AutoCloseable[] resources, int count, Map<AutoCloseable, AutoCloseable[]> graph,
+                             Executor executor, int parallelism, CloseObserver observer) {
+        this.resources = resources;
+        this.observer = observer;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.dependents = new int[count];
+        this.dependencies = new int[count][];
+        this.remaining = count;
+        IdentityHashMap<AutoCloseable, Integer> positions = new IdentityHashMap<>(count * 2);
+        for (int i = count - 1; i >= 0; i--) {
+            // у повторно добавленного ресурса берется позиция, ближайшая к вершине
+            positions.put(resources[i], i);
+        }
+        for (int i = 0; i < count; i++) {
+            AutoCloseable[] deps = graph.get(resources[i]);
+            if (deps == null) {
+                continue;
+            }
+            int[] indexes = new int[deps.length];
+            int n = 0;
+            for (AutoCloseable dep : deps) {
+                Integer j = positions.get(dep);
+                if (j != null && j != i) {
+                    indexes[n++] = j;
+                    dependents[j]++;
+                }
+            }
+            dependencies[i] = n == indexes.length ? indexes : Arrays.copyOf(indexes, n);
+        }
+        for (int i = 0; i < count; i++) {
+            if (dependents[i] == 0) {
+                ready.add(i);
+            }
+        }
+    }
+
+    /**
+     * Закрыть resources[0..count) (нулевой - ближайший к вершине) с учетом зависимостей и дождаться окончания.
+     * @param graph ресурс -> ресурсы, от которых он зависит
+     * @param executor пул для параллельного закрытия или null для закрытия в вызывающем потоке
+     * @param parallelism максимальное количество одновременно закрываемых ресурсов
+     * @param observer наблюдатель закрытия или null
+     */
+    static void closeAll(AutoCloseable[] resources, int count, Map<AutoCloseable, AutoCloseable[]> graph,
+                         Executor executor, int parallelism, CloseObserver observer) {
+        if (count == 0) {
+            return;
+        }
+        DependencyCloser closer = new DependencyCloser(resources, count, graph, executor, parallelism, observer);
+        int started;
+        synchronized (closer) {
+            started = closer.reserveTasks();
+        }
+        closer.startTasks(started);
+        closer.closeInCaller();
+    }
+
+    /**
+     * Переставить resources[from..to) (нулевой - ближайший к вершине) в порядок, в котором их закрыл бы
+     * {@link #closeAll} без executor, ничего не закрывая. Нужно тем, кто закрывает ресурсы по одному сам.
+     * @param graph ресурс -> ресурсы, от которых он зависит
+     */
+    static void sort(AutoCloseable[] resources, int from, int to, Map<AutoCloseable, AutoCloseable[]> graph) {
+        int count = to - from;
+        if (count < 2) {
+            return;
+        }
+        AutoCloseable[] segment = Arrays.copyOfRange(resources, from, to);
+        DependencyCloser order = new DependencyCloser(segment, count, graph, null, 1, null);
+        for (int k = from; k < to; k++) {
+            int i = order.ready.poll();
+            resources[k] = segment[i];
+            order.release(i);
+        }
+    }
+
+    /**
+     * Вызывающий поток: закрывать готовые ресурсы, а пока их нет - ждать, пока не будет закрыта вся группа.
+     */
+    private void closeInCaller() {
+        boolean interrupted = false;
+        for (;;) {
+            int i;
+            synchronized (this) {
+                while (ready.isEmpty() && remaining > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (remaining == 0) {
+                    break;
+                }
+                i = ready.poll();
+            }
+            closed(i);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Задача в executor: закрывать готовые ресурсы, пока они есть, и сразу завершиться, когда их не осталось.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            int i;
+            synchronized (this) {
+                if (ready.isEmpty()) {
+                    tasks--;
+                    return;
+                }
+                i = ready.poll();
+            }
+            closed(i);
+        }
+    }
+
+    /**
+     * Закрыть resources[i], отметить готовыми ресурсы, которые ждали только его, и при необходимости запустить
+     * для них задачи.
+     */
+    private void closed(int i) {
+        AutoCloseableHelper.closeQuietly(resources[i], observer);
+        int started;
+        synchronized (this) {
+            release(i);
+            notifyAll();
+            started = reserveTasks();
+        }
+        startTasks(started);
+    }
+
+    /**
+     * Отметить resources[i] закрытым и готовыми - ресурсы, которые ждали только его. Под монитором this.
+     */
+    private void release(int i) {
+        remaining--;
+        if (dependencies[i] != null) {
+            for (int j : dependencies[i]) {
+                if (--dependents[j] == 0) {
+                    ready.add(j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Сколько новых задач нужно запустить: по одной на каждый готовый ресурс сверх того, который возьмет текущий
+     * поток, но не больше (parallelism - 1) задач одновременно. Под монитором this.
+     */
+    private int reserveTasks() {
+        if (executor == null) {
+            return 0;
+        }
+        int n = Math.min(parallelism - 1 - tasks, ready.size() - 1);
+        if (n <= 0) {
+            return 0;
+        }
+        tasks += n;
+        return n;
+    }
+
+    private void startTasks(int n) {
+        for (int k = 0; k < n; k++) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    tasks -= n - k;
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package by.gto.library.helpers;
+
+/**
+ * События Java Flight Recorder для {@link AutoCloseableHelper#withFlightRecorder(long, java.util.concurrent.TimeUnit)}.
+ * Эта реализация для JDK 8, где JFR API нет, ничего не делает; реализация для JDK 11+ лежит в слое
+ * META-INF/versions/11 multi-release jar (src/main/java11).
+ */
+final class FlightRecorderSupport {
+    private FlightRecorderSupport() {
+    }
+
+    /**
+     * @param slowCloseThresholdNanos порог "медленного" закрытия ресурса, нс
+     * @return наблюдатель, порождающий события JFR, или null, если JFR недоступен
+     */
+    static CloseObserver observer(long slowCloseThresholdNanos) {
+        return null;
+    }
+}
@@ -0,0 +1,139 @@
+package by.gto.library.helpers;
+
+/**
+ * Индекс "ресурс -> позиция в списке закрытия" по идентичности (==) для {@link AutoCloseableHelper}.
+ * Открытая адресация с линейным пробированием по {@link System#identityHashCode(Object)}: ключи и позиции лежат
+ * в двух параллельных массивах, поэтому в отличие от {@code IdentityHashMap<AutoCloseable, Integer>} нет ни
+ * упаковки позиций в Integer, ни объектов-записей; память выделяется только при изменении размера таблицы.
+ * Удаление сдвигает следующие записи цепочки назад, поэтому "надгробий" в таблице не бывает.
+ * Не является потокобезопасным.
+ */
+final class IdentityPositions {
+    /** Возвращается, если ключа нет. */
+    static final int ABSENT = Integer.MIN_VALUE;
+
+    private AutoCloseable[] keys = new AutoCloseable[16];
+    private int[] positions = new int[16];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return позиция ключа или {@link #ABSENT}
+     */
+    int get(AutoCloseable key) {
+        AutoCloseable[] k = keys;
+        int mask = k.length - 1;
+        for (int i = slot(key, mask); k[i] != null; i = (i + 1) & mask) {
+            if (k[i] == key) {
+                return positions[i];
+            }
+        }
+        return ABSENT;
+    }
+
+    /**
+     * @return прежняя позиция ключа или {@link #ABSENT}
+     */
+    int put(AutoCloseable key, int position) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = positions[i];
+                positions[i] = position;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        positions[i] = position;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return ABSENT;
+    }
+
+    /**
+     * @return удаленная позиция ключа или {@link #ABSENT}
+     */
+    int remove(AutoCloseable key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = positions[i];
+                delete(i);
+                shrinkIfSparse();
+                return previous;
+            }
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Заменить позицию ключа, только если она равна from.
+     */
+    void replace(AutoCloseable key, int from, int to) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (positions[i] == from) {
+                    positions[i] = to;
+                }
+                return;
+            }
+        }
+    }
+
+    private static int slot(AutoCloseable key, int mask) {
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Освободить ячейку i, сдвинув назад записи, которые иначе стали бы недостижимы из своей начальной ячейки.
+     */
+    private void delete(int i) {
+        AutoCloseable[] k = keys;
+        int mask = k.length - 1;
+        size--;
+        for (int j = (i + 1) & mask; k[j] != null; j = (j + 1) & mask) {
+            int home = slot(k[j], mask);
+            // запись j можно перенести в i, если i лежит на ее пути от home до j
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                k[i] = k[j];
+                positions[i] = positions[j];
+                i = j;
+            }
+        }
+        k[i] = null;
+    }
+
+    /**
+     * Уменьшить таблицу, заполненную меньше чем на 1/8, чтобы опустевший большой индекс не удерживал память.
+     */
+    private void shrinkIfSparse() {
+        if (keys.length > 16 && size * 8 < keys.length) {
+            resize(keys.length / 2);
+        }
+    }
+
+    private void resize(int capacity) {
+        AutoCloseable[] oldKeys = keys;
+        int[] oldPositions = positions;
+        keys = new AutoCloseable[capacity];
+        positions = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                positions[i] = oldPositions[j];
+            }
+        }
+    }
+}
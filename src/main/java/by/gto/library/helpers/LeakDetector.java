@@ -0,0 +1,119 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Обнаружение утечек {@link AutoCloseableHelper}: обертка, которую забыли закрыть (например, создали вне
+ * try-with-resources), молча удерживает все свои ресурсы. Детектор запоминает место создания отслеживаемых оберток
+ * и, если такая обертка собрана сборщиком мусора незакрытой, пишет в лог
+ * {@code by.gto.library.helpers.LeakDetector} (уровень SEVERE) сообщение со стеком места создания.
+ *
+ * Уровни ({@link Mode}): DISABLED - ничего не отслеживается; SAMPLED - отслеживается одна обертка из
+ * {@link #getSamplingInterval()}; PARANOID - отслеживаются все. Уровень по умолчанию - DISABLED: так создание
+ * обертки не стоит ничего и JIT может полностью устранить короткоживущую обертку; для поиска утечек включайте
+ * SAMPLED (в т.ч. в production) или PARANOID (в тестах).
+ * Начальные значения задаются системными свойствами {@code by.gto.library.helpers.leakDetection.level} и
+ * {@code by.gto.library.helpers.leakDetection.samplingInterval}.
+ */
+public final class LeakDetector {
+    /**
+     * Уровень обнаружения утечек.
+     */
+    public enum Mode {
+        /** Ничего не отслеживается. */
+        DISABLED,
+        /** Отслеживается одна обертка из {@link #getSamplingInterval()}. */
+        SAMPLED,
+        /** Отслеживаются все обертки. */
+        PARANOID
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LeakDetector.class.getName());
+    private static final AtomicLong LEAKS = new AtomicLong();
+
+    private static volatile Mode mode = Mode.valueOf(
+            System.getProperty("by.gto.library.helpers.leakDetection.level", Mode.DISABLED.name()));
+    private static volatile int samplingInterval =
+            Integer.getInteger("by.gto.library.helpers.leakDetection.samplingInterval", 128);
+
+    private LeakDetector() {
+    }
+
+    /**
+     * @return текущий уровень
+     */
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Установить уровень. Действует на обертки, создаваемые после вызова.
+     * @param mode уровень
+     */
+    public static void setMode(Mode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        LeakDetector.mode = mode;
+    }
+
+    /**
+     * @return на уровне SAMPLED отслеживается одна обертка из стольких
+     */
+    public static int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * @param samplingInterval на уровне SAMPLED отслеживать одну обертку из стольких, не меньше 1
+     */
+    public static void setSamplingInterval(int samplingInterval) {
+        if (samplingInterval < 1) {
+            throw new IllegalArgumentException("samplingInterval < 1: " + samplingInterval);
+        }
+        LeakDetector.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * @return количество обнаруженных утечек с момента запуска
+     */
+    public static long getLeakCount() {
+        return LEAKS.get();
+    }
+
+    /**
+     * Начать отслеживание обертки, если этого требует текущий уровень.
+     * @return отслеживание, которое нужно отменить при закрытии обертки, или null
+     */
+    static PhantomCleaner.Cleanable track(AutoCloseableHelper helper) {
+        Mode m = mode;
+        if (m == Mode.DISABLED) {
+            return null;
+        }
+        if (m == Mode.SAMPLED && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+            return null;
+        }
+        return PhantomCleaner.register(helper, new Report(new Throwable("AutoCloseableHelper created here")));
+    }
+
+    /**
+     * Сообщение об утечке. Не ссылается на обертку, только на стек места ее создания.
+     */
+    private static final class Report implements Runnable {
+        private final Throwable creation;
+
+        Report(Throwable creation) {
+            this.creation = creation;
+        }
+
+        @Override
+        public void run() {
+            LEAKS.incrementAndGet();
+            LOGGER.log(Level.SEVERE, "AutoCloseableHelper was garbage-collected without being closed;"
+                    + " its resources were never closed by it", creation);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Параллельное закрытие группы независимых ресурсов для {@link AutoCloseableHelper#withParallelClose(Executor, int)}.
+ * Ресурсы разбираются по общему счетчику вызывающим потоком и не более чем (parallelism - 1) задачами в executor,
+ * поэтому одновременно закрывается не больше parallelism ресурсов, а перегруженный или отказавший executor
+ * лишь уменьшает параллелизм: оставшиеся ресурсы закроет вызывающий поток.
+ * Вызывающий поток ждет только закрытий, уже начатых задачами; задачи, еще не начавшиеся к концу разбора,
+ * не ждутся и, начавшись позже, сразу завершаются. Поэтому закрытие из задачи того же executor не зависает.
+ */
+final class ParallelCloser {
+    final Executor executor;
+    final int parallelism;
+
+    ParallelCloser(Executor executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Закрыть resources[0..count) и дождаться окончания. Ресурсы раздаются начиная с нулевого.
+     * @param observer наблюдатель закрытия или null
+     */
+    void closeAll(AutoCloseable[] resources, int count, CloseObserver observer) {
+        int workers = Math.min(parallelism, count) - 1;
+        if (workers <= 0) {
+            for (int i = 0; i < count; i++) {
+                AutoCloseableHelper.closeQuietly(resources[i], observer);
+            }
+            return;
+        }
+        Batch batch = new Batch(resources, count, observer);
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(batch);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        batch.drain();
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                batch.finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch implements Runnable {
+        private final AutoCloseable[] resources;
+        private final int count;
+        private final AtomicInteger next = new AtomicInteger();
+        /** Отсчитывает закрытые ресурсы, а не задачи: незапущенные задачи ждать не нужно. */
+        private final CountDownLatch finished;
+        private final CloseObserver observer;
+
+        Batch(AutoCloseable[] resources, int count, CloseObserver observer) {
+            this.resources = resources;
+            this.count = count;
+            this.finished = new CountDownLatch(count);
+            this.observer = observer;
+        }
+
+        @Override
+        public void run() {
+            drain();
+        }
+
+        void drain() {
+            for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                try {
+                    AutoCloseableHelper.closeQuietly(resources[i], observer);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package by.gto.library.helpers;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Аналог java.lang.ref.Cleaner (JDK 9+) для JDK 8: действие выполняется в потоке-демоне после того, как объект
+ * стал недостижим. Действие не должно ссылаться на сам объект, иначе объект никогда не станет недостижимым.
+ * Поток запускается при первой регистрации.
+ */
+final class PhantomCleaner {
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+    /** Зарегистрированные ссылки должны оставаться достижимыми, пока действие не выполнено или не отменено. */
+    private static final Set<Cleanable> LIVE = ConcurrentHashMap.newKeySet();
+
+    static {
+        Thread thread = new Thread(PhantomCleaner::processQueue, "auto-closeable-helper-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private PhantomCleaner() {
+    }
+
+    /**
+     * @param referent отслеживаемый объект
+     * @param action действие после того, как referent стал недостижим
+     * @return регистрация, через которую действие можно выполнить раньше или отменить
+     */
+    static Cleanable register(Object referent, Runnable action) {
+        Cleanable cleanable = new Cleanable(referent, action);
+        LIVE.add(cleanable);
+        return cleanable;
+    }
+
+    /**
+     * @return количество действий, которые еще не выполнены и не отменены
+     */
+    static int pendingCount() {
+        return LIVE.size();
+    }
+
+    private static void processQueue() {
+        for (;;) {
+            try {
+                ((Cleanable) QUEUE.remove()).clean();
+            } catch (InterruptedException ignored) {
+                // поток-демон работает до завершения JVM
+            } catch (Throwable ignored) {
+                // ошибка одного действия не должна останавливать остальные
+            }
+        }
+    }
+
+    static final class Cleanable extends PhantomReference<Object> {
+        private static final AtomicReferenceFieldUpdater<Cleanable, Runnable> ACTION =
+                AtomicReferenceFieldUpdater.newUpdater(Cleanable.class, Runnable.class, "action");
+
+        private volatile Runnable action;
+
+        private Cleanable(Object referent, Runnable action) {
+            super(referent, QUEUE);
+            this.action = action;
+        }
+
+        /**
+         * Выполнить действие, если оно еще не выполнено и не отменено.
+         */
+        void clean() {
+            Runnable a = take();
+            if (a != null) {
+                a.run();
+            }
+        }
+
+        /**
+         * Отменить действие: оно не будет выполнено.
+         */
+        void cancel() {
+            take();
+        }
+
+        private Runnable take() {
+            Runnable a = ACTION.getAndSet(this, null);
+            if (a != null) {
+                clear();
+                LIVE.remove(this);
+            }
+            return a;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package by.gto.library.helpers;
+
+/**
+ * Место создания оберток для {@link AutoCloseableHelper#forSite(SiteKey)}: хранит скользящее среднее размера
+ * "списка закрытия" оберток этого места, по которому следующая обертка сразу получает память нужного размера.
+ * Обычно объявляется константой рядом с местом использования:
+ * <pre>
+ * private static final SiteKey LOAD_REPORT = new SiteKey("loadReport");
+ * ...
+ * try (AutoCloseableHelper ah = AutoCloseableHelper.forSite(LOAD_REPORT)) {
+ *   ...
+ * }
+ * </pre>
+ * Статистика - одно поле без синхронизации: одновременные обновления из разных потоков могут теряться,
+ * что для оценки размера несущественно.
+ */
+public final class SiteKey {
+    /** Размеры больше этого учитываются как этот. */
+    private static final int MAX_SIZE = 1 << 20;
+
+    private final String name;
+    /** Экспоненциальное скользящее среднее размера с весом 1/8, в 1/16 долях. */
+    private int average16;
+
+    /**
+     * @param name имя места (для диагностики)
+     */
+    public SiteKey(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return имя места
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return ожидаемый размер "списка закрытия" обертки этого места
+     */
+    public int getExpectedSize() {
+        return (average16 + 15) >> 4;
+    }
+
+    /**
+     * @return сколько элементов выделить новой обертке: ожидаемый размер с запасом в четверть
+     */
+    int capacity() {
+        int expected = getExpectedSize();
+        return expected + (expected >> 2);
+    }
+
+    /**
+     * Учесть размер списка закрытия закрываемой обертки.
+     */
+    void record(int size) {
+        int average = average16;
+        average16 = average + (((Math.min(size, MAX_SIZE) << 4) - average) >> 3);
+    }
+
+    @Override
+    public String toString() {
+        return "SiteKey{" + name + ", expectedSize=" + getExpectedSize() + '}';
+    }
+}
@@ -0,0 +1,59 @@
+package by.gto.library.helpers;
+
+/**
+ * События Java Flight Recorder для {@link AutoCloseableHelper#withFlightRecorder(long, java.util.concurrent.TimeUnit)}.
+ * Реализация для JDK 11+ (слой META-INF/versions/11 multi-release jar). События создаются, только если
+ * они включены в текущей записи, поэтому без записи наблюдатель почти ничего не стоит.
+ */
+final class FlightRecorderSupport {
+    private FlightRecorderSupport() {
+    }
+
+    /**
+     * @param slowCloseThresholdNanos порог "медленного" закрытия ресурса, нс
+     * @return наблюдатель, порождающий события JFR
+     */
+    static CloseObserver observer(long slowCloseThresholdNanos) {
+        return new Observer(slowCloseThresholdNanos);
+    }
+
+    private static final class Observer implements CloseObserver {
+        private final long slowCloseThresholdNanos;
+
+        Observer(long slowCloseThresholdNanos) {
+            this.slowCloseThresholdNanos = slowCloseThresholdNanos;
+        }
+
+        @Override
+        public void closed(AutoCloseable autoCloseable, long nanos, Throwable failure) {
+            if (nanos >= slowCloseThresholdNanos) {
+                SlowResourceCloseEvent event = new SlowResourceCloseEvent();
+                if (event.isEnabled()) {
+                    event.resourceClass = autoCloseable.getClass();
+                    event.closeDuration = nanos;
+                    event.failed = failure != null;
+                    event.commit();
+                }
+            }
+            if (failure != null) {
+                SwallowedCloseExceptionEvent event = new SwallowedCloseExceptionEvent();
+                if (event.isEnabled()) {
+                    event.resourceClass = autoCloseable.getClass();
+                    event.exceptionClass = failure.getClass();
+                    event.message = failure.getMessage();
+                    event.commit();
+                }
+            }
+        }
+
+        @Override
+        public void scopeClosed(int closedCount, long nanos) {
+            ScopeCloseEvent event = new ScopeCloseEvent();
+            if (event.isEnabled()) {
+                event.resourceCount = closedCount;
+                event.closeDuration = nanos;
+                event.commit();
+            }
+        }
+    }
+}
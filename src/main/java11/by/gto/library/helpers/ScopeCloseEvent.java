@@ -0,0 +1,23 @@
+package by.gto.library.helpers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("by.gto.library.helpers.ScopeClose")
+@Label("AutoCloseableHelper Close")
+@Description("An AutoCloseableHelper closed all of its resources")
+@Category("AutoCloseableHelper")
+@StackTrace(false)
+final class ScopeCloseEvent extends Event {
+    @Label("Resource Count")
+    int resourceCount;
+
+    @Label("Close Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long closeDuration;
+}
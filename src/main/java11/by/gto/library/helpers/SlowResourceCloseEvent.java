@@ -0,0 +1,24 @@
+package by.gto.library.helpers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("by.gto.library.helpers.SlowResourceClose")
+@Label("Slow Resource Close")
+@Description("close() of a resource registered in an AutoCloseableHelper took longer than the configured threshold")
+@Category("AutoCloseableHelper")
+final class SlowResourceCloseEvent extends Event {
+    @Label("Resource Class")
+    Class<?> resourceClass;
+
+    @Label("Close Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long closeDuration;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,22 @@
+package by.gto.library.helpers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("by.gto.library.helpers.SwallowedCloseException")
+@Label("Swallowed Close Exception")
+@Description("close() of a resource registered in an AutoCloseableHelper threw an exception that was swallowed")
+@Category("AutoCloseableHelper")
+final class SwallowedCloseExceptionEvent extends Event {
+    @Label("Resource Class")
+    Class<?> resourceClass;
+
+    @Label("Exception Class")
+    Class<?> exceptionClass;
+
+    @Label("Message")
+    String message;
+}
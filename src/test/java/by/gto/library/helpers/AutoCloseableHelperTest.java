@@ -1,9 +1,19 @@
 package by.gto.library.helpers;
 
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -55,6 +65,700 @@ public class AutoCloseableHelperTest {
         }
     }
 
+    @Test
+    public void testIdentityIndex() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>();
+
+        try (AutoCloseableHelper ach = new AutoCloseableHelper().withIdentityIndex()) {
+            MyCloseable c1 = ach.add(new MyCloseable(openCloseOrder));
+            MyCloseable c2 = ach.add(new MyCloseable(openCloseOrder));
+            ach.add(c1);
+            // достаточно, чтобы сработало уплотнение
+            for (int i = 0; i < 100; i++) {
+                ach.remove(ach.add(new MyCloseable(openCloseOrder)), false);
+                MyCloseable kept = ach.add(new MyCloseable(openCloseOrder));
+                ach.add(new MyCloseable(openCloseOrder));
+                ach.remove(kept, false);
+            }
+            openCloseOrder.clear();
+            ach.remove(c1, true);
+            ach.remove(c2, false);
+        }
+        List<Integer> expected = new ArrayList<>();
+        expected.add(-1);
+        for (int i = 100; i >= 1; i--) {
+            expected.add(-(3 * i + 2));
+        }
+        Assert.assertEquals(expected, openCloseOrder);
+    }
+
+    @Test
+    public void testIdentityIndexForgetsClosedDuplicates() throws InterruptedException {
+        AutoCloseableHelper ach = new AutoCloseableHelper().withIdentityIndex();
+        WeakReference<AutoCloseable> twice = addTwiceAndReset(ach);
+        for (int i = 0; i < 100 && twice.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(twice.get());
+        ach.close();
+    }
+
+    private static WeakReference<AutoCloseable> addTwiceAndReset(AutoCloseableHelper ach) {
+        AutoCloseable resource = new StringReader("");
+        ach.add(resource);
+        ach.add(resource);
+        ach.add(resource);
+        Assert.assertTrue(ach.removeLast(resource, false));
+        int mark = ach.mark();
+        ach.add(resource);
+        ach.closeTo(mark);
+        ach.reset();
+        return new WeakReference<>(resource);
+    }
+
+    @Test
+    public void testAddTracked() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>(10);
+        AutoCloseableHelper.Registration<MyCloseable> stale = null;
+
+        try (AutoCloseableHelper ach = new AutoCloseableHelper()) {
+            MyCloseable c1 = ach.add(new MyCloseable(openCloseOrder));
+            for (int i = 0; i < 2; i++) {
+                try (AutoCloseableHelper.Registration<MyCloseable> c = ach.addTracked(new MyCloseable(openCloseOrder))) {
+                    Assert.assertTrue(c.isRegistered());
+                    stale = c;
+                }
+            }
+            // позиция устаревшей регистрации занята другим ресурсом
+            MyCloseable c4 = ach.add(new MyCloseable(openCloseOrder));
+            Assert.assertFalse(stale.release());
+            stale.close();
+            ach.addTracked(new MyCloseable(openCloseOrder)).release();
+            stale = ach.addTracked(new MyCloseable(openCloseOrder));
+        }
+        Assert.assertFalse(stale.isRegistered());
+        stale.close();
+        Assert.assertEquals(Arrays.asList(1, 2, -2, 3, -3, 4, 5, 6, -6, -4, -1), openCloseOrder);
+    }
+
+    @Test
+    public void testParallelClose() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MyCloseable.nextId = 1;
+            List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+
+            try (AutoCloseableHelper ach = new AutoCloseableHelper().withParallelClose(executor, 4)) {
+                ach.add(new MyCloseable(openCloseOrder));
+                ach.add(new MyCloseable(openCloseOrder));
+                ach.barrier();
+                for (int i = 0; i < 20; i++) {
+                    ach.add(new MyCloseable(openCloseOrder));
+                }
+                ach.barrier();
+                ach.add(new MyCloseable(openCloseOrder));
+            }
+            Assert.assertEquals(46, openCloseOrder.size());
+            Assert.assertEquals(-23, (int) openCloseOrder.get(23));
+            List<Integer> middle = new ArrayList<>(openCloseOrder.subList(24, 44));
+            Collections.sort(middle);
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(-22 + i, (int) middle.get(i));
+            }
+            Assert.assertTrue(openCloseOrder.subList(44, 46).containsAll(Arrays.asList(-1, -2)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelCloseFromSameExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MyCloseable.nextId = 1;
+            List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+            AutoCloseableHelper ach = new AutoCloseableHelper().withParallelClose(executor, 2);
+            for (int i = 0; i < 4; i++) {
+                ach.add(new MyCloseable(openCloseOrder));
+            }
+            // единственный поток executor занят закрытием: задача-помощник не начнется, пока оно не закончится
+            executor.submit(ach::close).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(8, openCloseOrder.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloseAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MyCloseable.nextId = 1;
+            List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+            CloseReport report;
+
+            try (AutoCloseableHelper ach = new AutoCloseableHelper()) {
+                ach.add(new MyCloseable(openCloseOrder));
+                ach.add(() -> {
+                    throw new IllegalStateException("failure");
+                });
+                ach.add(new MyCloseable(openCloseOrder));
+                report = ach.closeAsync(executor).get();
+                ach.add(new MyCloseable(openCloseOrder));
+            }
+            Assert.assertEquals(Arrays.asList(1, 2, -2, -1, 3, -3), openCloseOrder);
+            Assert.assertEquals(3, report.getClosedCount());
+            Assert.assertEquals(1, report.getFailedCount());
+            Assert.assertEquals("failure", report.getFailures().get(0).getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloseWithReport() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>();
+        AutoCloseableHelper ach = new AutoCloseableHelper();
+        ach.add(new MyCloseable(openCloseOrder));
+        ach.add(new MyCloseable(openCloseOrder));
+        CloseReport report = ach.closeWithReport();
+        Assert.assertEquals(Arrays.asList(1, 2, -2, -1), openCloseOrder);
+        Assert.assertTrue(report.isSuccessful());
+        Assert.assertEquals(2, report.getClosedCount());
+        Assert.assertEquals(-1, report.getTotalNanos());
+        Assert.assertSame(report, new AutoCloseableHelper(() -> { }, () -> { }).closeWithReport());
+
+        ach.add(new MyCloseable(openCloseOrder));
+        ach.add(() -> {
+            throw new IllegalStateException("failure");
+        });
+        report = ach.closeWithReport(true);
+        Assert.assertEquals(2, report.getClosedCount());
+        Assert.assertEquals(1, report.getFailedCount());
+        Assert.assertEquals(2, report.getTimings().size());
+        Assert.assertTrue(report.getTimings().get(0).isFailed());
+        Assert.assertEquals(MyCloseable.class, report.getTimings().get(1).getResourceClass());
+        Assert.assertTrue(report.getTotalNanos() >= report.getTimings().get(1).getNanos());
+    }
+
+    @Test
+    public void testCloseWithReportDoesNotAllocate() {
+        AutoCloseable resource = () -> { };
+        AutoCloseableHelper[] helpers = new AutoCloseableHelper[1000];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new AutoCloseableHelper(resource, resource, resource, resource);
+        }
+        int[] closed = new int[1];
+        long allocated = allocatedBytes(() -> {
+            for (AutoCloseableHelper helper : helpers) {
+                closed[0] += helper.closeWithReport().getClosedCount();
+            }
+        });
+        Assert.assertEquals(4 * helpers.length, closed[0]);
+        // без JIT и escape analysis: сам метод не создает ни итога, ни временных объектов
+        Assert.assertTrue("allocated " + allocated, allocated < helpers.length);
+    }
+
+    /**
+     * @return сколько байт выделил текущий поток, выполняя action, или -1, если JVM этого не измеряет
+     */
+    private static long allocatedBytes(Runnable action) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long thread = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(thread);
+        long before = threads.getThreadAllocatedBytes(thread);
+        action.run();
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    @Test
+    public void testCloseDeadline() throws Exception {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch hang = new CountDownLatch(1);
+        AutoCloseable hung = hang::await;
+        AutoCloseableHelper ach = new AutoCloseableHelper().withCloseDeadline(50, 0, TimeUnit.MILLISECONDS);
+        ach.add(new MyCloseable(openCloseOrder));
+        ach.add(hung);
+        ach.add(new MyCloseable(openCloseOrder));
+        CloseReport report = ach.closeWithReport();
+        Assert.assertEquals(Arrays.asList(1, 2, -2, -1), openCloseOrder);
+        Assert.assertEquals(Collections.singletonList(hung), report.getTimedOut());
+        Assert.assertEquals(2, report.getClosedCount());
+
+        ach.withCloseDeadline(0, 50, TimeUnit.MILLISECONDS);
+        ach.add(new MyCloseable(openCloseOrder));
+        ach.add(hung);
+        ach.add(new MyCloseable(openCloseOrder));
+        report = ach.closeWithReport();
+        // после дедлайна обертки 3 закрывается в пуле без ожидания
+        Assert.assertEquals(2, report.getTimedOut().size());
+        Assert.assertSame(hung, report.getTimedOut().get(0));
+        hang.countDown();
+        for (int i = 0; i < 100 && openCloseOrder.size() < 8; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, -2, -1, 3, 4, -4, -3), openCloseOrder);
+    }
+
+    @Test
+    public void testCloseDeadlineWithBusyExecutor() throws Exception {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch hang = new CountDownLatch(1);
+        AutoCloseable hung = hang::await;
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            AutoCloseableHelper ach = new AutoCloseableHelper()
+                    .withCloseDeadline(50, 0, TimeUnit.MILLISECONDS, executor);
+            MyCloseable waiting = ach.add(new MyCloseable(openCloseOrder));
+            ach.add(hung);
+            long start = System.nanoTime();
+            CloseReport report = ach.closeWithReport();
+            // единственный поток пула занят зависшим close(): 1 ждет в очереди и дальше не ждется
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            Assert.assertEquals(Arrays.asList(hung, waiting), report.getTimedOut());
+            hang.countDown();
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList(1, -1), openCloseOrder);
+        } finally {
+            hang.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCloseDeadlineKeepsBarriersAndDependencies() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+        AutoCloseableHelper ach = new AutoCloseableHelper().withCloseDeadline(10, 0, TimeUnit.SECONDS);
+        MyCloseable c1 = new MyCloseable(openCloseOrder);
+        MyCloseable c2 = new MyCloseable(openCloseOrder);
+        ach.add(new MyCloseable(openCloseOrder));
+        ach.barrier();
+        ach.add(c2, c1);
+        ach.add(c1);
+        ach.close();
+        Assert.assertEquals(Arrays.asList(1, 2, 3, -2, -1, -3), openCloseOrder);
+
+        // зависимость закрытых ресурсов забыта: повторно добавленные закрываются в обычном порядке
+        openCloseOrder.clear();
+        ach.add(c2);
+        ach.add(c1);
+        ach.close();
+        Assert.assertEquals(Arrays.asList(-1, -2), openCloseOrder);
+    }
+
+    @Test
+    public void testResetAndAcquire() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>();
+        AutoCloseableHelper parent = new AutoCloseableHelper();
+        AutoCloseableHelper child = parent.newChild();
+        child.add(new MyCloseable(openCloseOrder));
+        child.reset();
+        child.add(new MyCloseable(openCloseOrder));
+        parent.close();
+        Assert.assertEquals(Arrays.asList(1, -1, 2, -2), openCloseOrder);
+
+        AutoCloseableHelper pooled;
+        try (AutoCloseableHelper ach = AutoCloseableHelper.acquire().withIdentityIndex()) {
+            pooled = ach;
+            ach.add(new MyCloseable(openCloseOrder));
+            try (AutoCloseableHelper nested = AutoCloseableHelper.acquire()) {
+                Assert.assertNotSame(ach, nested);
+                nested.add(new MyCloseable(openCloseOrder));
+            }
+        }
+        Assert.assertEquals(Arrays.asList(1, -1, 2, -2, 3, 4, -4, -3), openCloseOrder);
+        pooled.close();
+        AutoCloseableHelper first = AutoCloseableHelper.acquire();
+        AutoCloseableHelper second = AutoCloseableHelper.acquire();
+        Assert.assertSame(pooled, first);
+        Assert.assertNotSame(first, second);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testForSite() {
+        SiteKey site = new SiteKey("test");
+        for (int i = 0; i < 40; i++) {
+            MyCloseable.nextId = 1;
+            List<Integer> openCloseOrder = new ArrayList<>();
+            try (AutoCloseableHelper ach = AutoCloseableHelper.forSite(site)) {
+                for (int j = 0; j < 20; j++) {
+                    ach.add(new MyCloseable(openCloseOrder));
+                }
+            }
+            Assert.assertEquals(40, openCloseOrder.size());
+            Assert.assertEquals(Integer.valueOf(-20), openCloseOrder.get(20));
+        }
+        Assert.assertEquals(20, site.getExpectedSize());
+        for (int i = 0; i < 40; i++) {
+            AutoCloseableHelper.forSite(site).closeWithReport();
+        }
+        Assert.assertEquals(0, site.getExpectedSize());
+    }
+
+    @Test
+    public void testLargeScope() {
+        List<Integer> closed = new ArrayList<>();
+        AutoCloseableHelper ach = new AutoCloseableHelper();
+        List<AutoCloseableHelper.Registration<AutoCloseable>> registrations = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int id = i;
+            registrations.add(ach.addTracked(() -> closed.add(id)));
+        }
+        for (int i = 4999; i >= 1000; i--) {
+            registrations.get(i).close();
+        }
+        for (int i = 5000; i < 8000; i++) {
+            int id = i;
+            ach.add(() -> closed.add(id));
+        }
+        ach.close();
+        Assert.assertEquals(8000, closed.size());
+        for (int i = 0; i < 4000; i++) {
+            Assert.assertEquals(4999 - i, (int) closed.get(i));
+        }
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertEquals(7999 - i, (int) closed.get(4000 + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(999 - i, (int) closed.get(7000 + i));
+        }
+    }
+
+    @Test
+    public void testStorageIsReusedAcrossChunkBoundary() {
+        AutoCloseable resource = () -> { };
+        AutoCloseableHelper ach = new AutoCloseableHelper();
+        // 4 в полях + 1024 в spill: следующий ресурс - первый в кусках
+        for (int i = 0; i < 1028; i++) {
+            ach.add(resource);
+        }
+        int mark = ach.mark();
+        ach.add(resource);
+        ach.closeTo(mark);
+        long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < 1000; i++) {
+                ach.add(resource);
+                ach.closeTo(mark);
+            }
+        });
+        // каталог и кусок заведены первым переходом и дальше переиспользуются
+        Assert.assertTrue("allocated " + allocated, allocated < 1000);
+        ach.close();
+    }
+
+    /**
+     * Случайные последовательности операций сверяются с простой моделью - списком в порядке добавления.
+     * Каждая сотая последовательность длиннее 3000 операций, чтобы список дорастал до кусков.
+     */
+    @Test
+    public void testRandomOperationsMatchModel() {
+        Random random = new Random(1);
+        for (int round = 0; round < 1000; round++) {
+            boolean indexed = random.nextBoolean();
+            boolean deduplicated = indexed && random.nextBoolean();
+            boolean large = round % 100 == 0;
+            List<Integer> closed = new ArrayList<>();
+            AutoCloseableHelper ach = new AutoCloseableHelper();
+            if (deduplicated) {
+                ach.withDeduplication();
+            } else if (indexed) {
+                ach.withIdentityIndex();
+            }
+            // элементы модели: ресурс или его регистрация, и порядковый номер добавления
+            List<Object> model = new ArrayList<>();
+            List<Integer> added = new ArrayList<>();
+            List<AutoCloseableHelper.Registration<IdCloseable>> registrations = new ArrayList<>();
+            ArrayDeque<int[]> marks = new ArrayDeque<>();
+            int operations = large ? 3000 + random.nextInt(6000) : random.nextInt(400);
+            int nextId = 0;
+            int nextAdded = 0;
+            for (int i = 0; i < operations; i++) {
+                int op = large && random.nextInt(200) != 0 ? random.nextInt(10) : random.nextInt(13);
+                if (op < 4) {
+                    model.add(ach.add(new IdCloseable(nextId++, closed)));
+                    added.add(nextAdded++);
+                } else if (op < 6) {
+                    AutoCloseableHelper.Registration<IdCloseable> registration =
+                            ach.addTracked(new IdCloseable(nextId++, closed));
+                    model.add(registration);
+                    added.add(nextAdded++);
+                    registrations.add(registration);
+                } else if (op < 8 && !model.isEmpty() && random.nextBoolean()) {
+                    // чаще всего удаляется только что добавленный ресурс
+                    int k = random.nextBoolean() ? model.size() - 1 : random.nextInt(model.size());
+                    IdCloseable resource = resourceOf(model.get(k));
+                    Assert.assertTrue(ach.removeLast(resource, false));
+                    k = model.size() - 1;
+                    while (resourceOf(model.get(k)) != resource) {
+                        k--;
+                    }
+                    model.remove(k);
+                    added.remove(k);
+                } else if (op < 8 && !model.isEmpty()) {
+                    IdCloseable resource = resourceOf(model.get(random.nextInt(model.size())));
+                    ach.remove(resource, false);
+                    for (int k = model.size() - 1; k >= 0; k--) {
+                        if (resourceOf(model.get(k)) == resource) {
+                            model.remove(k);
+                            added.remove(k);
+                        }
+                    }
+                } else if (op < 9 && !registrations.isEmpty()) {
+                    AutoCloseableHelper.Registration<IdCloseable> registration =
+                            registrations.remove(random.nextInt(registrations.size()));
+                    int k = indexOfSame(model, registration);
+                    Assert.assertEquals(k >= 0, registration.release());
+                    if (k >= 0) {
+                        model.remove(k);
+                        added.remove(k);
+                    }
+                } else if (op < 10 && !model.isEmpty()) {
+                    IdCloseable resource = resourceOf(model.get(random.nextInt(model.size())));
+                    ach.add(resource);
+                    if (!deduplicated) {
+                        model.add(resource);
+                        added.add(nextAdded++);
+                    }
+                } else if (op < 11) {
+                    marks.push(new int[]{ach.mark(), nextAdded});
+                } else if (op < 12 && !marks.isEmpty()) {
+                    int[] mark = null;
+                    for (int depth = random.nextInt(marks.size()); depth >= 0; depth--) {
+                        mark = marks.pop();
+                    }
+                    ach.closeTo(mark[0]);
+                    List<Integer> expected = new ArrayList<>();
+                    for (int k = model.size() - 1; k >= 0; k--) {
+                        if (added.get(k) >= mark[1]) {
+                            expected.add(resourceOf(model.remove(k)).id);
+                            added.remove(k);
+                        }
+                    }
+                    Assert.assertEquals("round " + round, expected, closed);
+                    closed.clear();
+                } else if (op == 12) {
+                    ach.barrier();
+                }
+            }
+            ach.close();
+            List<Integer> expected = new ArrayList<>();
+            for (int k = model.size() - 1; k >= 0; k--) {
+                expected.add(resourceOf(model.get(k)).id);
+            }
+            Assert.assertEquals("round " + round, expected, closed);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IdCloseable resourceOf(Object element) {
+        return element instanceof IdCloseable ? (IdCloseable) element
+                : ((AutoCloseableHelper.Registration<IdCloseable>) element).get();
+    }
+
+    private static int indexOfSame(List<Object> list, Object element) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testRemoveLast() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            MyCloseable.nextId = 1;
+            List<Integer> openCloseOrder = new ArrayList<>();
+            AutoCloseableHelper ach = new AutoCloseableHelper();
+            if (indexed) {
+                ach.withIdentityIndex();
+            }
+            MyCloseable c1 = ach.add(new MyCloseable(openCloseOrder));
+            MyCloseable c2 = ach.add(new MyCloseable(openCloseOrder));
+            ach.add(c1);
+            Assert.assertTrue(ach.removeLast(c1, false));
+            Assert.assertTrue(ach.removeLast(c2, true));
+            Assert.assertFalse(ach.removeLast(c2, false));
+            ach.close();
+            Assert.assertEquals(Arrays.asList(1, 2, -2, -1), openCloseOrder);
+        }
+    }
+
+    @Test
+    public void testDeduplication() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>();
+        AutoCloseableHelper ach = new AutoCloseableHelper().withDeduplication();
+        MyCloseable c1 = ach.add(new MyCloseable(openCloseOrder));
+        MyCloseable c2 = ach.add(new MyCloseable(openCloseOrder));
+        ach.add(c1);
+        AutoCloseableHelper.Registration<MyCloseable> r1 = ach.addTracked(c1);
+        Assert.assertSame(r1, ach.addTracked(c1));
+        ach.add(c1);
+        r1.close();
+        Assert.assertFalse(ach.removeLast(c1, false));
+        ach.add(c2);
+        ach.close();
+        Assert.assertEquals(Arrays.asList(1, 2, -1, -2), openCloseOrder);
+    }
+
+    @Test
+    public void testFixedArityAndIterable() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>();
+        MyCloseable c1 = new MyCloseable(openCloseOrder);
+        MyCloseable c2 = new MyCloseable(openCloseOrder);
+        MyCloseable c3 = new MyCloseable(openCloseOrder);
+
+        try (AutoCloseableHelper ach = new AutoCloseableHelper(c1, null, c2)) {
+            ach.addAll(Collections.singleton(c3));
+        }
+        AutoCloseableHelper.closeWithoutExceptions(c1, c2);
+        AutoCloseableHelper.closeAllWithoutExceptions(Arrays.asList(c3, null));
+        Assert.assertEquals(Arrays.asList(1, 2, 3, -3, -2, -1, -1, -2, -3), openCloseOrder);
+    }
+
+    @Test
+    public void testMarkCloseTo() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>(20);
+
+        try (AutoCloseableHelper ach = new AutoCloseableHelper()) {
+            ach.add(new MyCloseable(openCloseOrder));
+            int outer = ach.mark();
+            for (int i = 0; i < 2; i++) {
+                ach.add(new MyCloseable(openCloseOrder));
+                int inner = ach.mark();
+                ach.add(new MyCloseable(openCloseOrder));
+                ach.add(new MyCloseable(openCloseOrder));
+                ach.closeTo(inner);
+            }
+            ach.add(new MyCloseable(openCloseOrder));
+            ach.closeTo(outer);
+            ach.add(new MyCloseable(openCloseOrder));
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, -4, -3, 5, 6, 7, -7, -6, 8, -8, -5, -2, 9, -9, -1),
+                openCloseOrder);
+    }
+
+    @Test
+    public void testChildScopes() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>(20);
+
+        try (AutoCloseableHelper request = new AutoCloseableHelper()) {
+            request.add(new MyCloseable(openCloseOrder));
+            AutoCloseableHelper tx = request.newChild();
+            tx.add(new MyCloseable(openCloseOrder));
+            try (AutoCloseableHelper batch = tx.newChild()) {
+                batch.add(new MyCloseable(openCloseOrder));
+            }
+            AutoCloseableHelper batch = tx.newChild();
+            batch.add(new MyCloseable(openCloseOrder));
+            request.add(new MyCloseable(openCloseOrder));
+            AutoCloseableHelper other = request.newChild();
+            other.add(new MyCloseable(openCloseOrder));
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3, -3, 4, 5, 6, -6, -5, -4, -2, -1), openCloseOrder);
+    }
+
+    @Test
+    public void testDependencies() {
+        MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>(20);
+
+        try (AutoCloseableHelper ach = new AutoCloseableHelper()) {
+            MyCloseable statement = new MyCloseable(openCloseOrder);
+            MyCloseable other = ach.add(new MyCloseable(openCloseOrder));
+            MyCloseable rs = ach.add(new MyCloseable(openCloseOrder), statement);
+            // добавлен позже rs, но закроется после него
+            ach.add(statement, other);
+            try {
+                ach.add(other, rs);
+                Assert.fail("cycle must be rejected");
+            } catch (IllegalArgumentException ignored) {
+            }
+            // без зависимостей - обычное добавление
+            ach.add(new MyCloseable(openCloseOrder), (AutoCloseable[]) null);
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, -4, -3, -1, -2), openCloseOrder);
+    }
+
+    @Test
+    public void testDependenciesParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<String> closeOrder = Collections.synchronizedList(new ArrayList<>());
+            try (AutoCloseableHelper ach = new AutoCloseableHelper().withParallelClose(executor, 4)) {
+                for (int branch = 0; branch < 8; branch++) {
+                    String name = "c" + branch;
+                    AutoCloseable c = ach.add(() -> closeOrder.add(name));
+                    AutoCloseable s = ach.add(() -> closeOrder.add(name + "s"), c);
+                    ach.add(() -> closeOrder.add(name + "sr"), s);
+                }
+            }
+            Assert.assertEquals(24, closeOrder.size());
+            for (int branch = 0; branch < 8; branch++) {
+                String name = "c" + branch;
+                Assert.assertTrue(closeOrder.indexOf(name + "sr") < closeOrder.indexOf(name + "s"));
+                Assert.assertTrue(closeOrder.indexOf(name + "s") < closeOrder.indexOf(name));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDependencyChainDoesNotParkPoolThreads() {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            List<String> closeOrder = Collections.synchronizedList(new ArrayList<>());
+            try (AutoCloseableHelper ach = new AutoCloseableHelper().withParallelClose(executor, 4)) {
+                AutoCloseable c = ach.add(() -> closeOrder.add("c"));
+                // пока закрывается цепочка, поток пула должен оставаться свободным для других задач
+                AutoCloseable s = ach.add(() -> executor.submit(() -> closeOrder.add("probe"))
+                        .get(10, TimeUnit.SECONDS), c);
+                ach.add(() -> closeOrder.add("rs"), s);
+            }
+            Assert.assertEquals(Arrays.asList("rs", "probe", "c"), closeOrder);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static class IdCloseable implements AutoCloseable {
+        private final int id;
+        private final List<Integer> closed;
+
+        IdCloseable(int id, List<Integer> closed) {
+            this.id = id;
+            this.closed = closed;
+        }
+
+        @Override
+        public void close() {
+            closed.add(id);
+        }
+    }
+
     static class MyCloseable implements AutoCloseable {
         private final List<Integer> openCloseOrder;
         private final int id;
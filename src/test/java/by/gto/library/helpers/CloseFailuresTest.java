@@ -0,0 +1,61 @@
+package by.gto.library.helpers;
+
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CloseFailuresTest {
+    @Test
+    public void testFailureCollection() {
+        CloseFailures failures = new CloseFailures(2);
+        try (AutoCloseableHelper ach = new AutoCloseableHelper().withFailureCollection(failures)) {
+            for (int i = 0; i < 100; i++) {
+                ach.add(() -> {
+                    throw new IllegalStateException();
+                });
+            }
+            ach.add(() -> {
+                throw new IOException();
+            });
+            ach.add(() -> { });
+            ach.addTracked(() -> {
+                throw new IOException();
+            }).close();
+        }
+        Assert.assertEquals(102, failures.getFailedCount());
+        Assert.assertEquals(Integer.valueOf(100), failures.getCountsByClass().get(IllegalStateException.class));
+        Assert.assertEquals(Integer.valueOf(2), failures.getCountsByClass().get(IOException.class));
+        Assert.assertEquals(2, failures.getKept().size());
+        Assert.assertTrue(failures.getKept().get(0) instanceof IOException);
+
+        CloseReport report = failures.toReport();
+        Assert.assertEquals(103, report.getClosedCount());
+        Assert.assertEquals(102, report.getFailedCount());
+        Assert.assertEquals(2, report.getFailures().size());
+        Assert.assertFalse(report.isSuccessful());
+
+        try {
+            failures.throwIfAny(false);
+            Assert.fail();
+        } catch (CloseFailedException e) {
+            Assert.assertEquals(0, e.getStackTrace().length);
+            Assert.assertEquals(2, e.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void testCloseWithoutExceptions() {
+        CloseFailures failures = new CloseFailures(0);
+        AutoCloseableHelper.closeWithoutExceptions(failures, () -> { }, null, () -> {
+            throw new IOException();
+        });
+        Assert.assertEquals(2, failures.getClosedCount());
+        try {
+            failures.throwIfAny(true);
+            Assert.fail();
+        } catch (CloseFailedException e) {
+            Assert.assertEquals(0, e.getSuppressed().length);
+            Assert.assertTrue(e.getStackTrace().length > 0);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package by.gto.library.helpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CloseMetricsTest {
+    @Test
+    public void testMetrics() throws Exception {
+        CloseMetrics metrics = new CloseMetrics().register("test");
+        try {
+            List<Integer> openCloseOrder = new ArrayList<>();
+            try (AutoCloseableHelper ach = new AutoCloseableHelper().withMetrics(metrics)) {
+                ach.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+                ach.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+                ach.add(() -> {
+                    throw new IllegalStateException();
+                });
+            }
+            String name = AutoCloseableHelperTest.MyCloseable.class.getName();
+            Assert.assertEquals(3, metrics.getClosedCount());
+            Assert.assertEquals(1, metrics.getSwallowedExceptionCount());
+            Assert.assertEquals(Long.valueOf(2), metrics.getClosedCountByClass().get(name));
+            Assert.assertTrue(metrics.getP99NanosByClass().get(name) >= metrics.getMaxNanosByClass().get(name));
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("by.gto.library.helpers:type=CloseMetrics,name=\"test\"");
+            Assert.assertEquals(3L, server.getAttribute(objectName, "ClosedCount"));
+            Assert.assertEquals(2, ((TabularData) server.getAttribute(objectName, "ClosedCountByClass")).size());
+
+            // лямбды одного класса учитываются вместе
+            try (AutoCloseableHelper ach = new AutoCloseableHelper().withMetrics(metrics)) {
+                ach.add(() -> { });
+                ach.add(() -> { });
+            }
+            Assert.assertEquals(Long.valueOf(3),
+                    metrics.getClosedCountByClass().get(CloseMetricsTest.class.getName() + "$$Lambda"));
+            Assert.assertEquals("a.B", CloseMetrics.key("a.B/0x0000000800c01234"));
+            Assert.assertEquals("a.B$$Lambda", CloseMetrics.key("a.B$$Lambda$14/1234567"));
+        } finally {
+            CloseMetrics.unregister("test");
+        }
+    }
+
+    @Test
+    public void testGlobalWhenNameIsTaken() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("by.gto.library.helpers:type=CloseMetrics,name=\"global\"");
+        // имя занято, как после повторного развертывания веб-приложения
+        CloseMetrics.unregister("global");
+        CloseMetrics other = new CloseMetrics().register("global");
+        try {
+            CloseMetrics global = CloseMetrics.global();
+            Assert.assertNotSame(other, global);
+            Assert.assertSame(global, CloseMetrics.global());
+            try (AutoCloseableHelper ach = new AutoCloseableHelper().withMetrics(global)) {
+                ach.add(() -> { });
+            }
+            Assert.assertEquals(0L, server.getAttribute(objectName, "ClosedCount"));
+        } finally {
+            CloseMetrics.unregister("global");
+        }
+        Assert.assertFalse(server.isRegistered(objectName));
+    }
+}
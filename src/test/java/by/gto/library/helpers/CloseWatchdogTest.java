@@ -0,0 +1,24 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CloseWatchdogTest {
+    @Test
+    public void testHungCloseIsReportedOnce() {
+        CloseWatchdog.start(20, TimeUnit.MILLISECONDS);
+        try {
+            long hung = CloseWatchdog.getHungCloseCount();
+            AutoCloseableHelper.closeWithoutExceptions(() -> { });
+            Assert.assertEquals(hung, CloseWatchdog.getHungCloseCount());
+            try (AutoCloseableHelper ach = new AutoCloseableHelper()) {
+                ach.add(() -> Thread.sleep(300));
+            }
+            Assert.assertEquals(hung + 1, CloseWatchdog.getHungCloseCount());
+        } finally {
+            CloseWatchdog.stop();
+        }
+        Assert.assertFalse(CloseWatchdog.isRunning());
+    }
+}
@@ -0,0 +1,69 @@
+package by.gto.library.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentAutoCloseableHelperTest {
+    @Test
+    public void testCloseOrder() {
+        AutoCloseableHelperTest.MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = new ArrayList<>(10);
+
+        try (ConcurrentAutoCloseableHelper ach = new ConcurrentAutoCloseableHelper()) {
+            AutoCloseableHelperTest.MyCloseable c1 = ach.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+            ach.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+            ach.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+            ach.remove(c1, true);
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3, -1, -3, -2), openCloseOrder);
+    }
+
+    @Test
+    public void testLateArrivalIsClosedAndRejected() {
+        ConcurrentAutoCloseableHelper ach = new ConcurrentAutoCloseableHelper();
+        ach.close();
+        Assert.assertTrue(ach.isClosed());
+        AtomicInteger closed = new AtomicInteger();
+        try {
+            ach.add(closed::incrementAndGet);
+            Assert.fail("late add must be rejected");
+        } catch (IllegalStateException ignored) {
+        }
+        Assert.assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 10_000;
+        AtomicInteger closed = new AtomicInteger();
+        ConcurrentAutoCloseableHelper ach = new ConcurrentAutoCloseableHelper();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    ach.add(closed::incrementAndGet);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        ach.close();
+        Assert.assertEquals(threads * perThread, closed.get());
+    }
+}
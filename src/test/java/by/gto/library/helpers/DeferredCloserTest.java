@@ -0,0 +1,78 @@
+package by.gto.library.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeferredCloserTest {
+    @Test
+    public void testDeferredClose() {
+        AutoCloseableHelperTest.MyCloseable.nextId = 1;
+        List<Integer> openCloseOrder = Collections.synchronizedList(new ArrayList<>());
+
+        try (DeferredCloser closer = new DeferredCloser(16, 1, 4)) {
+            AutoCloseableHelper first = new AutoCloseableHelper().withDeferredClose(closer);
+            first.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+            first.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+            AutoCloseableHelper second = new AutoCloseableHelper().withDeferredClose(closer);
+            second.add(new AutoCloseableHelperTest.MyCloseable(openCloseOrder));
+            // все ресурсы открываются до первого закрытия, поэтому порядок не зависит от фонового потока
+            first.close();
+            second.close();
+            // пустая обертка в очередь не ставится
+            new AutoCloseableHelper().withDeferredClose(closer).close();
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3, -2, -1, -3), openCloseOrder);
+    }
+
+    @Test
+    public void testBackpressureClosesInline() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> closed = Collections.synchronizedList(new ArrayList<>());
+
+        try (DeferredCloser closer = new DeferredCloser(1, 1, 1)) {
+            closer.closeLater(() -> {
+                blocked.countDown();
+                release.await();
+                closed.add("blocking");
+            });
+            blocked.await();
+            closer.closeLater(() -> closed.add("queued"));
+            closer.closeLater(() -> closed.add("inline"));
+            Assert.assertEquals(Collections.singletonList("inline"), closed);
+            Assert.assertEquals(1, closer.getQueueDepth());
+            Assert.assertEquals(1, closer.getClosedInlineCount());
+            release.countDown();
+        }
+        Assert.assertEquals(Arrays.asList("inline", "blocking", "queued"), closed);
+    }
+
+    @Test
+    public void testCloseRacingWithCloseLater() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            AtomicInteger closed = new AtomicInteger();
+            DeferredCloser closer = new DeferredCloser(1024, 1, 16);
+            Thread[] producers = new Thread[4];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        closer.closeLater(closed::incrementAndGet);
+                    }
+                });
+                producers[i].start();
+            }
+            closer.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            // все, что принято до или во время остановки, закрыто к концу close(), остальное - на месте
+            Assert.assertEquals(producers.length * 100, closed.get());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package by.gto.library.helpers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LeakDetectorTest {
+    @Test
+    public void testLeakIsReported() throws InterruptedException {
+        LeakDetector.Mode mode = LeakDetector.getMode();
+        LeakDetector.setMode(LeakDetector.Mode.PARANOID);
+        try {
+            long leaks = LeakDetector.getLeakCount();
+            try (AutoCloseableHelper closed = new AutoCloseableHelper()) {
+                closed.add(() -> { });
+            }
+            leak();
+            for (int i = 0; i < 100 && LeakDetector.getLeakCount() == leaks; i++) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(leaks + 1, LeakDetector.getLeakCount());
+        } finally {
+            LeakDetector.setMode(mode);
+        }
+    }
+
+    @Test
+    public void testCloseOnGc() throws InterruptedException {
+        AtomicInteger closed = new AtomicInteger();
+        dropWithCloseOnGc(closed);
+        for (int i = 0; i < 100 && closed.get() < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(3, closed.get());
+    }
+
+    @Test
+    public void testCloseOnGcEnabledAfterChild() throws InterruptedException {
+        AtomicInteger closed = new AtomicInteger();
+        dropWithCloseOnGcEnabledLate(closed);
+        for (int i = 0; i < 100 && closed.get() < 2; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void testClosedHelperIsNotTrackedForGc() {
+        int pending = PhantomCleaner.pendingCount();
+        for (int i = 0; i < 1000; i++) {
+            try (AutoCloseableHelper ach = AutoCloseableHelper.acquire().withCloseOnGc()) {
+                ach.add(() -> { });
+            }
+        }
+        AutoCloseableHelper reused = new AutoCloseableHelper().withCloseOnGc();
+        reused.add(() -> { });
+        reused.close();
+        Assert.assertEquals(pending, PhantomCleaner.pendingCount());
+        // после закрытия режим сохраняется: новый ресурс снова отслеживается
+        reused.add(() -> { });
+        Assert.assertEquals(pending + 1, PhantomCleaner.pendingCount());
+        reused.close();
+        Assert.assertEquals(pending, PhantomCleaner.pendingCount());
+    }
+
+    private static void dropWithCloseOnGcEnabledLate(AtomicInteger closed) {
+        AutoCloseableHelper ach = new AutoCloseableHelper();
+        ach.add(closed::incrementAndGet);
+        ach.newChild().add(closed::incrementAndGet);
+        ach.withCloseOnGc();
+    }
+
+    private static void dropWithCloseOnGc(AtomicInteger closed) {
+        AutoCloseableHelper ach = new AutoCloseableHelper().withCloseOnGc();
+        ach.add(closed::incrementAndGet);
+        ach.addTracked(closed::incrementAndGet);
+        ach.addTracked(() -> Assert.fail("released resource must not be closed")).release();
+        ach.newChild().add(closed::incrementAndGet);
+    }
+
+    private static void leak() {
+        new AutoCloseableHelper().add(() -> { });
+    }
+}
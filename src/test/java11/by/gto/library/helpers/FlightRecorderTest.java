@@ -0,0 +1,55 @@
+package by.gto.library.helpers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlightRecorderTest {
+    @Test
+    public void testEventsAreEmitted() throws Exception {
+        Path file = Files.createTempFile("auto-closeable-helper", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("by.gto.library.helpers.ScopeClose");
+                recording.enable("by.gto.library.helpers.SlowResourceClose");
+                recording.enable("by.gto.library.helpers.SwallowedCloseException");
+                recording.start();
+                try (AutoCloseableHelper ach = new AutoCloseableHelper().withFlightRecorder(1, TimeUnit.MILLISECONDS)) {
+                    ach.add(() -> Thread.sleep(5));
+                    ach.add(() -> {
+                        throw new IllegalStateException("failure");
+                    });
+                    ach.add(() -> { });
+                }
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            Map<String, RecordedEvent> byName = new HashMap<>();
+            for (RecordedEvent event : events) {
+                byName.put(event.getEventType().getName(), event);
+            }
+            RecordedEvent scope = byName.get("by.gto.library.helpers.ScopeClose");
+            Assert.assertNotNull(scope);
+            Assert.assertEquals(3, scope.getInt("resourceCount"));
+            RecordedEvent slow = byName.get("by.gto.library.helpers.SlowResourceClose");
+            Assert.assertNotNull(slow);
+            Assert.assertTrue(slow.getLong("closeDuration") >= TimeUnit.MILLISECONDS.toNanos(1));
+            RecordedEvent swallowed = byName.get("by.gto.library.helpers.SwallowedCloseException");
+            Assert.assertNotNull(swallowed);
+            Assert.assertEquals(IllegalStateException.class.getName(),
+                    swallowed.getClass("exceptionClass").getName());
+            Assert.assertEquals("failure", swallowed.getString("message"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}